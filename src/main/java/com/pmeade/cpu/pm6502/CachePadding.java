@@ -0,0 +1,36 @@
+/*
+ * CachePadding.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502;
+
+/**
+ * Leading padding for CPU state that is written on every instruction.
+ *
+ * The JVM lays out superclass fields before subclass fields, so every
+ * instance of a subclass begins with 128 bytes that are never written.
+ * The int fills the gap HotSpot leaves after a 12-byte object header;
+ * without it the layout would move a subclass int into that gap, ahead
+ * of the padding. PM6502Padding closes the other side of the state.
+ * @author pmeade
+ */
+abstract class CachePadding
+{
+    int p;
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p08, p09, p10, p11, p12, p13, p14, p15;
+}
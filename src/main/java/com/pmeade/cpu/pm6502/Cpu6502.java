@@ -187,9 +187,11 @@ public interface Cpu6502
         IMP, ABY, BAD, BAD, BAD, ABX, ABX, BAD
     };
 
+    public void doIRQ();
     public void doNMI();
     public int execute();
     public int getAC();
+    public long getCycleCount();
     public int getPC();
     public int getSP();
     public int getSR();
@@ -198,6 +200,7 @@ public interface Cpu6502
     public void reset();
     public void setMemoryIO(MemoryIO mem);
     public void setAC(int i);
+    public void setPC(int i);
     public void setSP(int i);
     public void setSR(int i);
     public void setXR(int i);
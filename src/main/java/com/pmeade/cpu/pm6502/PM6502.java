@@ -18,11 +18,32 @@
 
 package com.pmeade.cpu.pm6502;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author pmeade
  */
-public class PM6502 implements Cpu6502
+public class PM6502 extends PM6502Padding implements Cpu6502, Stateful
 {
+    /**
+     * Size of the save state written by saveState(): the six registers,
+     * the running cycle count, and the internal scratch registers.
+     */
+    public static final int STATE_SIZE = 5 + 2 + 8 + 4 + (4 * 4);
+
+    public void doIRQ() {
+        if((sr & FLAG_INTERRUPT) == FLAG_INTERRUPT) {
+            return;
+        }
+        push((pc & 0xff00) >> 8);
+        push(pc & 0xff);
+        sr |= FLAG_RESERVED;
+        push(sr);
+        sr |= FLAG_INTERRUPT;
+        pc = mem.read(IRQ_LO);
+        pc |= (mem.read(IRQ_HI) << 8);
+    }
+
     public void doNMI() {
         push((pc & 0xff00) >> 8);
         push(pc & 0xff);
@@ -359,6 +380,7 @@ public class PM6502 implements Cpu6502
                 throw new UnsupportedOperationException("Opcode: 0x" + Integer.toHexString(opcode));
         }
 
+        clock += cycles;
         return cycles;
     }
     
@@ -366,6 +388,10 @@ public class PM6502 implements Cpu6502
         return ac;
     }
 
+    public long getCycleCount() {
+        return clock;
+    }
+
     public int getPC() {
         return pc;
     }
@@ -378,6 +404,10 @@ public class PM6502 implements Cpu6502
         return sr;
     }
 
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
     public int getXR() {
         return xr;
     }
@@ -386,6 +416,21 @@ public class PM6502 implements Cpu6502
         return yr;
     }
     
+    public void loadState(ByteBuffer buf) {
+        ac = buf.get() & 0xff;
+        xr = buf.get() & 0xff;
+        yr = buf.get() & 0xff;
+        sp = buf.get() & 0xff;
+        sr = buf.get() & 0xff;
+        pc = buf.getShort() & 0xffff;
+        clock = buf.getLong();
+        cycles = buf.getInt();
+        s1 = buf.getInt();
+        s2 = buf.getInt();
+        s3 = buf.getInt();
+        s4 = buf.getInt();
+    }
+
     public void reset() {
         pc = mem.read(RESET_LO);
         pc |= (mem.read(RESET_HI) << 8);
@@ -393,6 +438,21 @@ public class PM6502 implements Cpu6502
         sr = FLAG_RESERVED | FLAG_ZERO;
     }
 
+    public void saveState(ByteBuffer buf) {
+        buf.put((byte) ac);
+        buf.put((byte) xr);
+        buf.put((byte) yr);
+        buf.put((byte) sp);
+        buf.put((byte) sr);
+        buf.putShort((short) pc);
+        buf.putLong(clock);
+        buf.putInt(cycles);
+        buf.putInt(s1);
+        buf.putInt(s2);
+        buf.putInt(s3);
+        buf.putInt(s4);
+    }
+
     public void setMemoryIO(MemoryIO mem) {
         this.mem = mem;
     }
@@ -401,6 +461,10 @@ public class PM6502 implements Cpu6502
         this.ac = ac;
     }
 
+    public void setPC(int pc) {
+        this.pc = pc;
+    }
+
     public void setSP(int sp) {
         this.sp = sp;
     }
@@ -586,19 +650,4 @@ public class PM6502 implements Cpu6502
                 break;
         }
     }
-    
-    private int ac;
-    private int pc;
-    private int sp;
-    private int sr;
-    private int xr;
-    private int yr;
-    
-    private MemoryIO mem;
-    
-    private int cycles;
-    private int s1;
-    private int s2;
-    private int s3;
-    private int s4;
 }
@@ -0,0 +1,31 @@
+/*
+ * PM6502Padding.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502;
+
+/**
+ * Trailing padding for PM6502State: 128 bytes that are never written, so
+ * the CPU state cannot share a cache line (or a prefetched line pair) with
+ * whatever object is allocated after the CPU.
+ * @author pmeade
+ */
+abstract class PM6502Padding extends PM6502State
+{
+    long q00, q01, q02, q03, q04, q05, q06, q07;
+    long q08, q09, q10, q11, q12, q13, q14, q15;
+}
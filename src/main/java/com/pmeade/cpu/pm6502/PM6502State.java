@@ -0,0 +1,43 @@
+/*
+ * PM6502State.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502;
+
+/**
+ * Registers and scratch state of PM6502, kept in a class of their own so
+ * that the padding classes on either side of it surround them.
+ * @author pmeade
+ */
+abstract class PM6502State extends CachePadding
+{
+    int ac;
+    int pc;
+    int sp;
+    int sr;
+    int xr;
+    int yr;
+    
+    MemoryIO mem;
+    
+    long clock;
+    int cycles;
+    int s1;
+    int s2;
+    int s3;
+    int s4;
+}
@@ -0,0 +1,34 @@
+/*
+ * Stateful.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by anything (CPU core, memory, device) whose state can be
+ * written to and read back from a save state. Implementations must write
+ * exactly getStateSize() bytes, using bulk ByteBuffer operations.
+ * @author pmeade
+ */
+public interface Stateful
+{
+    public int getStateSize();
+    public void loadState(ByteBuffer buf);
+    public void saveState(ByteBuffer buf);
+}
@@ -0,0 +1,151 @@
+/*
+ * CommandQueue.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lets other threads control a running CPU: raise an NMI, set the IRQ
+ * line, or poke memory.
+ *
+ * Any thread may post commands; they go on a lock-free queue and set a
+ * volatile pending flag. The emulation thread runs the CPU in batches
+ * through run(), which reads the flag once per batch and, if set, applies
+ * every posted command at that instruction boundary. Commands therefore
+ * take effect within one batch, in the order they were posted, and never
+ * race with execute().
+ * @author pmeade
+ */
+public class CommandQueue
+{
+    public CommandQueue(Cpu6502 cpu, MemoryIO mem) {
+        this.cpu = cpu;
+        this.mem = mem;
+        this.queue = new ConcurrentLinkedQueue<Command>();
+    }
+
+    /**
+     * Apply any posted commands now. Only the emulation thread may call
+     * this, at an instruction boundary.
+     */
+    public void drain() {
+        if(!pending) {
+            return;
+        }
+        // clear before polling, so a command posted during the drain
+        // leaves the flag set for the next batch
+        pending = false;
+        Command command;
+        while((command = queue.poll()) != null) {
+            switch(command.kind) {
+                case NMI:
+                    cpu.doNMI();
+                    break;
+                case IRQ:
+                    irq = (command.value != 0);
+                    break;
+                case POKE:
+                    mem.write(command.address, command.value);
+                    break;
+                default:
+                    throw new IllegalStateException("Command: " + command.kind);
+            }
+        }
+    }
+
+    public boolean isIRQ() {
+        return irq;
+    }
+
+    /**
+     * Post an NMI. Safe from any thread.
+     */
+    public void nmi() {
+        post(new Command(NMI, 0, 0));
+    }
+
+    /**
+     * Set the level of the IRQ line. Safe from any thread. While the line
+     * is asserted, the CPU takes the interrupt at the start of a batch if
+     * its interrupt disable flag is clear.
+     * @param asserted true to assert the line, false to release it
+     */
+    public void irq(boolean asserted) {
+        post(new Command(IRQ, 0, asserted ? 1 : 0));
+    }
+
+    /**
+     * Write to memory from another thread. Safe from any thread.
+     * @param address address to write
+     * @param value value to write
+     */
+    public void poke(int address, int value) {
+        post(new Command(POKE, address, value));
+    }
+
+    /**
+     * Run a batch of instructions, applying posted commands first. Only
+     * the emulation thread may call this.
+     * @param instructions number of instructions to execute
+     * @return number of cycles executed
+     */
+    public long run(int instructions) {
+        drain();
+        if(irq && ((cpu.getSR() & Cpu6502.FLAG_INTERRUPT) == 0)) {
+            cpu.doIRQ();
+        }
+        long cycles = 0;
+        for(int i=0; i<instructions; i++) {
+            cycles += cpu.execute();
+        }
+        return cycles;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void post(Command command) {
+        queue.offer(command);
+        pending = true;
+    }
+
+    private static final int NMI = 0;
+    private static final int IRQ = 1;
+    private static final int POKE = 2;
+
+    private static class Command
+    {
+        public Command(int kind, int address, int value) {
+            this.kind = kind;
+            this.address = address;
+            this.value = value;
+        }
+
+        private final int kind;
+        private final int address;
+        private final int value;
+    }
+
+    private final Cpu6502 cpu;
+    private final MemoryIO mem;
+    private final ConcurrentLinkedQueue<Command> queue;
+    private volatile boolean pending;
+    private boolean irq;
+}
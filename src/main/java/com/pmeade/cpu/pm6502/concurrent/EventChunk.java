@@ -0,0 +1,100 @@
+/*
+ * EventChunk.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+/**
+ * A batch of execution events in parallel primitive arrays, as delivered
+ * by a TracePublisher. Event kinds are the EventRing KIND_ constants; for
+ * KIND_EXECUTE the address is the PC and the value is the opcode.
+ * @author pmeade
+ */
+public class EventChunk
+{
+    public EventChunk(int capacity) {
+        this.cycles = new long[capacity];
+        this.pcs = new char[capacity];
+        this.addresses = new char[capacity];
+        this.values = new byte[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    public int getAddress(int i) {
+        return addresses[i];
+    }
+
+    public int getCapacity() {
+        return cycles.length;
+    }
+
+    public long getCycle(int i) {
+        return cycles[i];
+    }
+
+    public int getKind(int i) {
+        return kinds[i];
+    }
+
+    public int getPC(int i) {
+        return pcs[i];
+    }
+
+    public int getValue(int i) {
+        return values[i] & 0xff;
+    }
+
+    public boolean isFull() {
+        return size == cycles.length;
+    }
+
+    /**
+     * @return true, if events were sampled (not all recorded) while this
+     *         chunk was filled
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // ------------------------------------------------------------------------
+
+    void add(long cycle, int pc, int address, int value, int kind) {
+        cycles[size] = cycle;
+        pcs[size] = (char) pc;
+        addresses[size] = (char) address;
+        values[size] = (byte) value;
+        kinds[size] = (byte) kind;
+        size++;
+    }
+
+    void clear(boolean sampled) {
+        this.size = 0;
+        this.sampled = sampled;
+    }
+
+    private final long[] cycles;
+    private final char[] pcs;
+    private final char[] addresses;
+    private final byte[] values;
+    private final byte[] kinds;
+    private int size;
+    private boolean sampled;
+}
@@ -0,0 +1,62 @@
+/*
+ * EventConsumer.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reader of an EventRing. Each consumer is polled by one thread.
+ * @author pmeade
+ */
+public class EventConsumer
+{
+    /**
+     * @return number of published events this consumer has not yet read
+     */
+    public long getBacklog() {
+        return ring.getCursor() - sequence.get();
+    }
+
+    /**
+     * @return sequence of the last event this consumer has read
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Deliver the events published since the last poll, in order.
+     * @param handler receiver of the events
+     * @param max maximum number of events to deliver
+     * @return number of events delivered
+     */
+    public int poll(EventHandler handler, int max) {
+        return ring.drain(sequence, handler, max);
+    }
+
+    // ------------------------------------------------------------------------
+
+    EventConsumer(EventRing ring, long sequence) {
+        this.ring = ring;
+        this.sequence = new AtomicLong(sequence);
+    }
+
+    private final EventRing ring;
+    private final AtomicLong sequence;
+}
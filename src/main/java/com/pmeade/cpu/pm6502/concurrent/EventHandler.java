@@ -0,0 +1,29 @@
+/*
+ * EventHandler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+/**
+ * Receives events drained from an EventRing. The fields are passed as
+ * primitives, so delivering an event allocates nothing.
+ * @author pmeade
+ */
+public interface EventHandler
+{
+    public void onEvent(long sequence, long cycle, int pc, int address, int value, int kind);
+}
@@ -0,0 +1,52 @@
+/*
+ * EventMemoryIO.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Publishes every read and write to an EventRing, so tracers and sinks
+ * can watch the bus from their own threads. The PC is the CPU's PC at
+ * the time of the access.
+ * @author pmeade
+ */
+public class EventMemoryIO implements MemoryIO
+{
+    public EventMemoryIO(MemoryIO mem, Cpu6502 cpu, EventRing ring) {
+        this.mem = mem;
+        this.cpu = cpu;
+        this.ring = ring;
+    }
+
+    public int read(int address) {
+        int data = mem.read(address);
+        ring.publish(cpu.getCycleCount(), cpu.getPC(), address, data, EventRing.KIND_READ);
+        return data;
+    }
+
+    public void write(int address, int data) {
+        mem.write(address, data);
+        ring.publish(cpu.getCycleCount(), cpu.getPC(), address, data, EventRing.KIND_WRITE);
+    }
+
+    private final MemoryIO mem;
+    private final Cpu6502 cpu;
+    private final EventRing ring;
+}
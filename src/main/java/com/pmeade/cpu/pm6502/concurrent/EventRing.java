@@ -0,0 +1,206 @@
+/*
+ * EventRing.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of primitive events written by the emulation thread
+ * and read by any number of consumer threads, each of which sees every
+ * event.
+ *
+ * Events are stored in parallel arrays indexed by sequence number. The
+ * producer writes the slot and then publishes the sequence with an
+ * ordered store; each consumer tracks its own sequence the same way, and
+ * the producer only looks at the consumers' sequences when its cached
+ * view of the slowest one says the ring may be full.
+ *
+ * When a consumer falls a full ring behind, the overflow policy decides:
+ * BLOCK waits for it, DROP discards the new event, and SAMPLE starts
+ * keeping only one event in sampleInterval once the ring is half full
+ * (and drops when it is completely full). Dropped events are counted.
+ * @author pmeade
+ */
+public class EventRing
+{
+    public enum Overflow { BLOCK, DROP, SAMPLE }
+
+    public static final int KIND_READ = 0;
+    public static final int KIND_WRITE = 1;
+    public static final int KIND_EXECUTE = 2;
+    public static final int KIND_INTERRUPT = 3;
+
+    public EventRing(int capacity, Overflow overflow) {
+        this(capacity, overflow, 16);
+    }
+
+    /**
+     * @param capacity number of events in the ring; a power of two
+     * @param overflow what to do when a consumer falls behind
+     * @param sampleInterval keep one event in this many under SAMPLE
+     */
+    public EventRing(int capacity, Overflow overflow, int sampleInterval) {
+        if((capacity <= 1) || ((capacity & (capacity - 1)) != 0)) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        if(sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.mask = capacity - 1;
+        this.overflow = overflow;
+        this.sampleInterval = sampleInterval;
+        this.threshold = (overflow == Overflow.SAMPLE) ? (capacity / 2) : capacity;
+        this.cycles = new long[capacity];
+        this.pcs = new char[capacity];
+        this.addresses = new char[capacity];
+        this.values = new byte[capacity];
+        this.kinds = new byte[capacity];
+        this.cursor = new AtomicLong(-1);
+        this.consumers = new EventConsumer[0];
+        this.next = 0;
+        this.gate = -1;
+    }
+
+    /**
+     * Attach a consumer. It sees events published after this call.
+     * @return new consumer
+     */
+    public synchronized EventConsumer addConsumer() {
+        EventConsumer consumer = new EventConsumer(this, cursor.get());
+        EventConsumer[] list = Arrays.copyOf(consumers, consumers.length + 1);
+        list[consumers.length] = consumer;
+        consumers = list;
+        return consumer;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return sequence of the most recently published event, or -1
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Write an event. Only the emulation thread may call this.
+     * @return true, if the event was published; false if it was dropped
+     */
+    public boolean publish(long cycle, int pc, int address, int value, int kind) {
+        long seq = next;
+        if(seq - gate > threshold) {
+            gate = getMinimumSequence(seq - 1);
+            if((seq - gate > threshold) && !makeRoom(seq)) {
+                dropped++;
+                return false;
+            }
+        }
+        int i = (int) (seq & mask);
+        cycles[i] = cycle;
+        pcs[i] = (char) pc;
+        addresses[i] = (char) address;
+        values[i] = (byte) value;
+        kinds[i] = (byte) kind;
+        next = seq + 1;
+        cursor.lazySet(seq);
+        return true;
+    }
+
+    /**
+     * Detach a consumer, so it no longer holds the producer back.
+     * @param consumer consumer to remove
+     */
+    public synchronized void removeConsumer(EventConsumer consumer) {
+        EventConsumer[] list = new EventConsumer[consumers.length];
+        int n = 0;
+        for(EventConsumer c : consumers) {
+            if(c != consumer) {
+                list[n++] = c;
+            }
+        }
+        consumers = Arrays.copyOf(list, n);
+    }
+
+    // ------------------------------------------------------------------------
+
+    int drain(AtomicLong sequence, EventHandler handler, int max) {
+        long from = sequence.get() + 1;
+        long to = Math.min(cursor.get(), from + max - 1);
+        for(long seq=from; seq<=to; seq++) {
+            int i = (int) (seq & mask);
+            handler.onEvent(seq, cycles[i], pcs[i], addresses[i], values[i] & 0xff, kinds[i]);
+        }
+        if(to >= from) {
+            sequence.lazySet(to);
+        }
+        return (int) Math.max(0, to - from + 1);
+    }
+
+    private long getMinimumSequence(long minimum) {
+        for(EventConsumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.getSequence());
+        }
+        return minimum;
+    }
+
+    private boolean makeRoom(long seq) {
+        switch(overflow) {
+            case BLOCK:
+                int spins = 0;
+                while(seq - gate > threshold) {
+                    if(++spins < 100) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(1000L);
+                    }
+                    gate = getMinimumSequence(seq - 1);
+                }
+                return true;
+            case SAMPLE:
+                sampleCount++;
+                return ((sampleCount % sampleInterval) == 0) && (seq - gate <= mask + 1);
+            default:
+                return false;
+        }
+    }
+
+    private final int mask;
+    private final Overflow overflow;
+    private final int sampleInterval;
+    private final int threshold;
+    private final long[] cycles;
+    private final char[] pcs;
+    private final char[] addresses;
+    private final byte[] values;
+    private final byte[] kinds;
+    private final AtomicLong cursor;
+    private volatile EventConsumer[] consumers;
+    private long next;
+    private long gate;
+    private long dropped;
+    private long sampleCount;
+}
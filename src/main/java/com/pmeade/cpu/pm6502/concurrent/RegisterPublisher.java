@@ -0,0 +1,114 @@
+/*
+ * RegisterPublisher.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes the registers of a CPU to observer threads through a seqlock.
+ *
+ * The emulation thread calls publish() (or runs the CPU through execute(),
+ * which publishes every N instructions). A publish is a handful of
+ * ordered stores and never waits for readers. Readers on other threads
+ * call read(), which retries if it overlapped a publish, and never block
+ * the emulation thread.
+ *
+ * The six registers are packed into one long, so a snapshot is two longs
+ * guarded by a sequence number. Stores are release-ordered (lazySet) and
+ * loads are volatile, which is all a seqlock needs.
+ * @author pmeade
+ */
+public class RegisterPublisher
+{
+    public RegisterPublisher(Cpu6502 cpu, int interval) {
+        if(interval <= 0) {
+            throw new IllegalArgumentException("Publish interval must be positive: " + interval);
+        }
+        this.cpu = cpu;
+        this.interval = interval;
+        this.countdown = interval;
+        this.slots = new AtomicLongArray(3);
+    }
+
+    /**
+     * Execute one instruction, publishing the registers every interval
+     * instructions. Only the emulation thread may call this.
+     * @return number of cycles the instruction took
+     */
+    public int execute() {
+        int cycles = cpu.execute();
+        if(--countdown == 0) {
+            countdown = interval;
+            publish();
+        }
+        return cycles;
+    }
+
+    /**
+     * Publish the current registers. Only the emulation thread may call
+     * this, at an instruction boundary.
+     */
+    public void publish() {
+        long regs = ((long) (cpu.getAC() & 0xff) << 48)
+                  | ((long) (cpu.getXR() & 0xff) << 40)
+                  | ((long) (cpu.getYR() & 0xff) << 32)
+                  | ((long) (cpu.getSP() & 0xff) << 24)
+                  | ((long) (cpu.getSR() & 0xff) << 16)
+                  | (cpu.getPC() & 0xffff);
+        long seq = sequence;
+        slots.lazySet(SEQUENCE, seq + 1);
+        slots.lazySet(REGISTERS, regs);
+        slots.lazySet(CYCLES, cpu.getCycleCount());
+        slots.lazySet(SEQUENCE, seq + 2);
+        sequence = seq + 2;
+    }
+
+    /**
+     * Read the most recently published registers. Safe from any thread.
+     * @param snapshot object to fill in
+     * @return the provided snapshot
+     */
+    public RegisterSnapshot read(RegisterSnapshot snapshot) {
+        while(true) {
+            long before = slots.get(SEQUENCE);
+            long regs = slots.get(REGISTERS);
+            long cycles = slots.get(CYCLES);
+            long after = slots.get(SEQUENCE);
+            if((before == after) && ((before & 1) == 0)) {
+                snapshot.set(before >>> 1, regs, cycles);
+                return snapshot;
+            }
+        }
+    }
+
+    public RegisterSnapshot snapshot() {
+        return read(new RegisterSnapshot());
+    }
+
+    private static final int SEQUENCE = 0;
+    private static final int REGISTERS = 1;
+    private static final int CYCLES = 2;
+
+    private final Cpu6502 cpu;
+    private final int interval;
+    private final AtomicLongArray slots;
+    private int countdown;
+    private long sequence;
+}
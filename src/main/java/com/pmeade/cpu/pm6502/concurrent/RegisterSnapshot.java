@@ -0,0 +1,82 @@
+/*
+ * RegisterSnapshot.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+/**
+ * Coherent copy of the CPU registers and cycle count, as published by a
+ * RegisterPublisher.
+ * @author pmeade
+ */
+public class RegisterSnapshot
+{
+    public int getAC() {
+        return ac;
+    }
+
+    public long getCycleCount() {
+        return cycleCount;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+
+    public int getSP() {
+        return sp;
+    }
+
+    public int getSR() {
+        return sr;
+    }
+
+    public int getXR() {
+        return xr;
+    }
+
+    public int getYR() {
+        return yr;
+    }
+
+    /**
+     * @return number of snapshots published before this one was taken
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void set(long version, long regs, long cycleCount) {
+        this.version = version;
+        this.ac = (int) (regs >>> 48) & 0xff;
+        this.xr = (int) (regs >>> 40) & 0xff;
+        this.yr = (int) (regs >>> 32) & 0xff;
+        this.sp = (int) (regs >>> 24) & 0xff;
+        this.sr = (int) (regs >>> 16) & 0xff;
+        this.pc = (int) regs & 0xffff;
+        this.cycleCount = cycleCount;
+    }
+
+    private long version;
+    private int ac;
+    private int xr;
+    private int yr;
+    private int sp;
+    private int sr;
+    private int pc;
+    private long cycleCount;
+}
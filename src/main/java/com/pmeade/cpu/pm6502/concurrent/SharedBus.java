@@ -0,0 +1,184 @@
+/*
+ * SharedBus.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped file through which the CPU and a peripheral model in
+ * another process exchange device accesses with no system calls.
+ *
+ * The file holds three things:
+ * <ul>
+ *   <li>a register for every address, which the peripheral sets and the
+ *       CPU reads;</li>
+ *   <li>a mailbox, a single-producer single-consumer ring of the CPU's
+ *       writes in order; its tail is the doorbell the peripheral
+ *       watches;</li>
+ *   <li>an IRQ line the peripheral can assert.</li>
+ * </ul>
+ * Every shared word is accessed through VarHandle views of the mapping
+ * with acquire/release ordering, which holds across processes mapping
+ * the same file. The head and tail live on separate cache lines.
+ * @author pmeade
+ */
+public class SharedBus implements Closeable
+{
+    public static final int MAGIC = 0x504D3642;
+    public static final int VERSION = 1;
+
+    /**
+     * Create (or replace) a bus file.
+     * @param path file to create
+     * @param mailboxCapacity number of writes the mailbox holds; a power of two
+     * @return bus mapped from the new file
+     */
+    public static SharedBus create(Path path, int mailboxCapacity) throws IOException {
+        if((mailboxCapacity <= 0) || ((mailboxCapacity & (mailboxCapacity - 1)) != 0)) {
+            throw new IllegalArgumentException("Mailbox capacity must be a power of two: " + mailboxCapacity);
+        }
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    MAILBOX_OFFSET + (4L * mailboxCapacity));
+            buffer.putInt(8, mailboxCapacity);
+            buffer.putInt(4, VERSION);
+            INTS.setRelease(buffer, 0, MAGIC);
+            return new SharedBus(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Map an existing bus file, typically from the peripheral process.
+     * @param path file created by create()
+     * @return bus mapped from the file
+     */
+    public static SharedBus open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if((buffer.capacity() < MAILBOX_OFFSET) || (((int) INTS.getAcquire(buffer, 0)) != MAGIC)
+                    || (buffer.getInt(4) != VERSION)) {
+                throw new IOException("Not a shared bus file: " + path);
+            }
+            return new SharedBus(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void close() {
+        buffer.force();
+    }
+
+    public int getMailboxCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of writes ever posted; the doorbell
+     */
+    public long getPosted() {
+        return (long) LONGS.getAcquire(buffer, TAIL);
+    }
+
+    public boolean isIRQ() {
+        return ((int) INTS.getAcquire(buffer, IRQ)) != 0;
+    }
+
+    /**
+     * Take the oldest write from the mailbox. Peripheral side.
+     * @return (address &lt;&lt; 8) | value, or -1 if the mailbox is empty
+     */
+    public int poll() {
+        long head = (long) LONGS.getOpaque(buffer, HEAD);
+        if(head >= (long) LONGS.getAcquire(buffer, TAIL)) {
+            return -1;
+        }
+        int entry = buffer.getInt(MAILBOX_OFFSET + ((int) (head & mask) << 2));
+        LONGS.setRelease(buffer, HEAD, head + 1);
+        return entry;
+    }
+
+    /**
+     * Add a write to the mailbox and ring the doorbell. CPU side.
+     * @return false, if the mailbox is full
+     */
+    public boolean post(int address, int value) {
+        long tail = (long) LONGS.getOpaque(buffer, TAIL);
+        if(tail - (long) LONGS.getAcquire(buffer, HEAD) > mask) {
+            return false;
+        }
+        buffer.putInt(MAILBOX_OFFSET + ((int) (tail & mask) << 2), (address << 8) | (value & 0xff));
+        LONGS.setRelease(buffer, TAIL, tail + 1);
+        return true;
+    }
+
+    public int readRegister(int address) {
+        return ((int) INTS.getAcquire(buffer, REGISTERS_OFFSET + (address << 2))) & 0xff;
+    }
+
+    /**
+     * Assert or release the IRQ line. Peripheral side.
+     */
+    public void setIRQ(boolean asserted) {
+        INTS.setRelease(buffer, IRQ, asserted ? 1 : 0);
+    }
+
+    public void writeRegister(int address, int value) {
+        INTS.setRelease(buffer, REGISTERS_OFFSET + (address << 2), value & 0xff);
+    }
+
+    // ------------------------------------------------------------------------
+
+    private SharedBus(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.mask = buffer.getInt(8) - 1;
+    }
+
+    private static final VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int HEAD = 64;
+    private static final int TAIL = 128;
+    private static final int IRQ = 192;
+    private static final int REGISTERS_OFFSET = 256;
+    private static final int MAILBOX_OFFSET = REGISTERS_OFFSET + (0x10000 * 4);
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+}
@@ -0,0 +1,68 @@
+/*
+ * SharedMemoryIO.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.IoMap;
+
+/**
+ * Routes device addresses to a SharedBus and everything else to local
+ * memory. Reads of a device address return the register the peripheral
+ * last set; writes are only posted to the mailbox, in order, and the
+ * peripheral decides what the register holds afterwards (so a command
+ * register can read back as status). If the peripheral falls a full
+ * mailbox behind, the CPU spins until it catches up.
+ * @author pmeade
+ */
+public class SharedMemoryIO implements MemoryIO
+{
+    public SharedMemoryIO(MemoryIO mem, IoMap ioMap, SharedBus bus) {
+        this.mem = mem;
+        this.ioMap = ioMap;
+        this.bus = bus;
+    }
+
+    /**
+     * @return true, if the peripheral is asserting the IRQ line
+     */
+    public boolean isIRQ() {
+        return bus.isIRQ();
+    }
+
+    public int read(int address) {
+        if(ioMap.isIO(address)) {
+            return bus.readRegister(address);
+        }
+        return mem.read(address);
+    }
+
+    public void write(int address, int data) {
+        if(ioMap.isIO(address)) {
+            while(!bus.post(address, data)) {
+                Thread.onSpinWait();
+            }
+            return;
+        }
+        mem.write(address, data);
+    }
+
+    private final MemoryIO mem;
+    private final IoMap ioMap;
+    private final SharedBus bus;
+}
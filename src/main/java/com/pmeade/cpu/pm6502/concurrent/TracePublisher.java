@@ -0,0 +1,288 @@
+/*
+ * TracePublisher.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow.Publisher of instruction and memory-write events, delivered in
+ * chunks of primitive arrays.
+ *
+ * Run the CPU through execute() and give it the MemoryIO from wrap(). An
+ * instruction is recorded when the CPU fetches its opcode through that
+ * MemoryIO, and a write when the CPU makes it, so tracing adds no memory
+ * accesses of its own (which matters for device addresses and for
+ * recording MemoryIOs underneath). Chunks are delivered on
+ * the emulation thread, one unit of demand per chunk; a chunk is only
+ * delivered when every subscriber has requested one. When a chunk fills
+ * and some subscriber has no outstanding demand, the policy decides:
+ * PAUSE blocks the emulation thread until demand arrives; SAMPLE drops
+ * the chunk and records only one event in sampleInterval until demand
+ * returns, so the next chunk delivered covers a longer, sampled span.
+ * A PAUSE that is interrupted handles the chunk as SAMPLE would, and
+ * leaves the thread's interrupt status set.
+ *
+ * Every signal to a subscriber, including the onError for a request of
+ * zero or less, is sent from the emulation thread (at its next event, or
+ * close()).
+ *
+ * With no subscribers nothing is recorded.
+ * @author pmeade
+ */
+public class TracePublisher implements Flow.Publisher<EventChunk>
+{
+    public enum Policy { PAUSE, SAMPLE }
+
+    public TracePublisher(Cpu6502 cpu, int chunkSize, Policy policy, int sampleInterval) {
+        if(chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        if(sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.cpu = cpu;
+        this.chunkSize = chunkSize;
+        this.policy = policy;
+        this.sampleInterval = sampleInterval;
+        this.subscriptions = new CopyOnWriteArrayList<Subscription>();
+        this.chunk = new EventChunk(chunkSize);
+        this.lock = new Object();
+    }
+
+    /**
+     * Deliver any partial chunk that can be delivered now, and complete
+     * every subscriber.
+     */
+    public void close() {
+        sendErrors();
+        if((chunk.size() > 0) && (getMinimumDemand() > 0)) {
+            deliver();
+        }
+        for(Subscription s : subscriptions) {
+            subscriptions.remove(s);
+            s.subscriber.onComplete();
+        }
+    }
+
+    /**
+     * Execute one instruction, recording it.
+     * @return number of cycles the instruction took
+     */
+    public int execute() {
+        // the event is recorded when wrap() sees the opcode fetch
+        fetchPC = subscriptions.isEmpty() ? NO_FETCH : cpu.getPC();
+        int cycles = cpu.execute();
+        fetchPC = NO_FETCH;
+        return cycles;
+    }
+
+    /**
+     * @return number of events dropped under the SAMPLE policy, or by
+     *         an interrupted PAUSE
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void subscribe(Flow.Subscriber<? super EventChunk> subscriber) {
+        Subscription s = new Subscription(subscriber);
+        subscriptions.add(s);
+        subscriber.onSubscribe(s);
+    }
+
+    /**
+     * @param target memory of the CPU
+     * @return memory that records opcode fetches and writes to the target
+     */
+    public MemoryIO wrap(final MemoryIO target) {
+        return new MemoryIO() {
+            public int read(int address) {
+                int data = target.read(address);
+                if(address == fetchPC) {
+                    fetchPC = NO_FETCH;
+                    record(address, address, data, EventRing.KIND_EXECUTE);
+                }
+                return data;
+            }
+
+            public void write(int address, int data) {
+                target.write(address, data);
+                if(!subscriptions.isEmpty()) {
+                    record(cpu.getPC(), address, data, EventRing.KIND_WRITE);
+                }
+            }
+        };
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Wait until every subscriber has outstanding demand.
+     * @return true if there is demand, false if the thread was interrupted
+     *         while waiting (its interrupt status is set again)
+     */
+    private boolean awaitDemand() {
+        while(true) {
+            sendErrors();
+            if(getMinimumDemand() > 0) {
+                return true;
+            }
+            synchronized(lock) {
+                if(!errorPending && (getMinimumDemand() == 0)) {
+                    try {
+                        lock.wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void deliver() {
+        EventChunk full = chunk;
+        chunk = new EventChunk(chunkSize);
+        sampling = false;
+        for(Subscription s : subscriptions) {
+            if(s.error == null) {
+                s.demand.decrementAndGet();
+                s.subscriber.onNext(full);
+            }
+        }
+    }
+
+    private void flush() {
+        sendErrors();
+        if(getMinimumDemand() > 0) {
+            deliver();
+            return;
+        }
+        if((policy == Policy.PAUSE) && awaitDemand()) {
+            deliver();
+            return;
+        }
+        dropped += chunk.size();
+        sampling = true;
+        chunk.clear(true);
+    }
+
+    /**
+     * @return the smallest outstanding demand of any subscriber not
+     *         waiting for an error signal, or Long.MAX_VALUE if there are
+     *         none
+     */
+    private long getMinimumDemand() {
+        long minimum = Long.MAX_VALUE;
+        for(Subscription s : subscriptions) {
+            if(s.error == null) {
+                minimum = Math.min(minimum, s.demand.get());
+            }
+        }
+        return minimum;
+    }
+
+    private void record(int pc, int address, int value, int kind) {
+        if(errorPending) {
+            sendErrors();
+        }
+        if(sampling && ((++sampleCount % sampleInterval) != 0)) {
+            dropped++;
+            return;
+        }
+        chunk.add(cpu.getCycleCount(), pc, address, value, kind);
+        if(chunk.isFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * Signal onError to subscriptions that made a bad request, on the
+     * emulation thread, so it cannot overlap an onNext to them.
+     */
+    private void sendErrors() {
+        errorPending = false;
+        for(Subscription s : subscriptions) {
+            if(s.error != null) {
+                subscriptions.remove(s);
+                s.subscriber.onError(s.error);
+            }
+        }
+    }
+
+    private void wake() {
+        synchronized(lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private static final int NO_FETCH = -1;
+
+    private class Subscription implements Flow.Subscription
+    {
+        public Subscription(Flow.Subscriber<? super EventChunk> subscriber) {
+            this.subscriber = subscriber;
+            this.demand = new AtomicLong();
+        }
+
+        public void cancel() {
+            subscriptions.remove(this);
+            wake();
+        }
+
+        public void request(long n) {
+            if(n <= 0) {
+                // signalled by the emulation thread, see sendErrors()
+                if(error == null) {
+                    error = new IllegalArgumentException("Demand must be positive: " + n);
+                }
+                errorPending = true;
+                wake();
+                return;
+            }
+            long current, next;
+            do {
+                current = demand.get();
+                next = (current + n < 0) ? Long.MAX_VALUE : current + n;
+            } while(!demand.compareAndSet(current, next));
+            wake();
+        }
+
+        private final Flow.Subscriber<? super EventChunk> subscriber;
+        private final AtomicLong demand;
+        private volatile IllegalArgumentException error;
+    }
+
+    private final Cpu6502 cpu;
+    private final int chunkSize;
+    private final Policy policy;
+    private final int sampleInterval;
+    private final CopyOnWriteArrayList<Subscription> subscriptions;
+    private final Object lock;
+    private EventChunk chunk;
+    private boolean sampling;
+    private long sampleCount;
+    private long dropped;
+    private volatile boolean errorPending;
+    private int fetchPC = NO_FETCH;
+}
@@ -0,0 +1,189 @@
+/*
+ * AsyncRunner.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous facade for running single jobs:
+ * <pre>
+ *   CompletableFuture&lt;FarmResult&gt; result = runner.submit(
+ *       new FarmJob(image).until(Completion.BRK).cycleBudget(10000000L));
+ * </pre>
+ * Each job runs in batches of cycles on the given Executor; after every
+ * batch it hands itself back to the executor, so a few threads (or any
+ * number of virtual threads) interleave many jobs. Cancelling the future
+ * stops the job at the next batch boundary.
+ *
+ * CPUs and Ram are pooled: a finished job returns them for reuse, and a
+ * pooled Ram takes a new image as a copy-on-write share, so a job does
+ * not allocate a machine or copy its image. A reused CPU starts with
+ * A, X and Y cleared, as a new one does.
+ * @author pmeade
+ */
+public class AsyncRunner
+{
+    public static final long DEFAULT_BATCH = 100000;
+
+    public AsyncRunner() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH);
+    }
+
+    public AsyncRunner(Executor executor, long batchCycles) {
+        if(batchCycles <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchCycles);
+        }
+        this.executor = executor;
+        this.batchCycles = batchCycles;
+        this.cpuPool = new ConcurrentLinkedQueue<PM6502>();
+        this.ramPool = new ConcurrentLinkedQueue<Ram>();
+    }
+
+    /**
+     * @return number of idle machines held for reuse
+     */
+    public int getPoolSize() {
+        return cpuPool.size();
+    }
+
+    /**
+     * Start a job.
+     * @param job job to run
+     * @return future completed with the job's result; it completes
+     *         exceptionally if the job's completion predicate throws
+     */
+    public CompletableFuture<FarmResult> submit(FarmJob job) {
+        Task task = new Task(job);
+        schedule(task);
+        return task.future;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void schedule(Task task) {
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException e) {
+            task.release();
+            task.future.completeExceptionally(e);
+        }
+    }
+
+    private class Task implements Runnable
+    {
+        public Task(FarmJob job) {
+            this.job = job;
+            this.future = new CompletableFuture<FarmResult>();
+        }
+
+        public void run() {
+            if(future.isDone()) {
+                // cancelled
+                release();
+                return;
+            }
+            if(cpu == null) {
+                start();
+            }
+            long end = Math.min(cpu.getCycleCount() + batchCycles, budgetEnd);
+            Completion completion = job.getCompletion();
+            try {
+                while(cpu.getCycleCount() < end) {
+                    cpu.execute();
+                    if((completion != null) && completion.isComplete(cpu, ram)) {
+                        finish(FarmResult.Status.COMPLETED);
+                        return;
+                    }
+                }
+            } catch(UnsupportedOperationException e) {
+                finish(FarmResult.Status.HALTED);
+                return;
+            } catch(RuntimeException e) {
+                release();
+                future.completeExceptionally(e);
+                return;
+            }
+            if(cpu.getCycleCount() >= budgetEnd) {
+                finish(FarmResult.Status.BUDGET_EXHAUSTED);
+                return;
+            }
+            schedule(this);
+        }
+
+        private void finish(FarmResult.Status status) {
+            FarmResult result = new FarmResult(status, cpu, ram,
+                    cpu.getCycleCount() - startCycle, job.getCaptures());
+            release();
+            future.complete(result);
+        }
+
+        private void release() {
+            if(cpu != null) {
+                cpuPool.offer(cpu);
+                ramPool.offer(ram);
+                cpu = null;
+                ram = null;
+            }
+        }
+
+        private void start() {
+            cpu = cpuPool.poll();
+            ram = ramPool.poll();
+            if(cpu == null) {
+                cpu = new PM6502();
+            }
+            if(ram == null) {
+                ram = job.getImage().fork();
+            } else {
+                ram.load(job.getImage());
+            }
+            cpu.setMemoryIO(ram);
+            cpu.reset();
+            // reset() leaves A, X and Y alone; a pooled CPU would carry
+            // them over from the previous job
+            cpu.setAC(0);
+            cpu.setXR(0);
+            cpu.setYR(0);
+            if(job.getEntryPoint() >= 0) {
+                cpu.setPC(job.getEntryPoint());
+            }
+            startCycle = cpu.getCycleCount();
+            long budget = job.getCycleBudget();
+            budgetEnd = (budget > Long.MAX_VALUE - startCycle) ? Long.MAX_VALUE : startCycle + budget;
+        }
+
+        private final FarmJob job;
+        private final CompletableFuture<FarmResult> future;
+        private PM6502 cpu;
+        private Ram ram;
+        private long startCycle;
+        private long budgetEnd;
+    }
+
+    private final Executor executor;
+    private final long batchCycles;
+    private final ConcurrentLinkedQueue<PM6502> cpuPool;
+    private final ConcurrentLinkedQueue<Ram> ramPool;
+}
@@ -0,0 +1,40 @@
+/*
+ * Completion.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Decides when a job has finished. Checked after every instruction.
+ * @author pmeade
+ */
+public interface Completion
+{
+    /**
+     * Complete when the next instruction is a BRK.
+     */
+    public static final Completion BRK = new Completion() {
+        public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+            return mem.read(cpu.getPC()) == 0x00;
+        }
+    };
+
+    public boolean isComplete(Cpu6502 cpu, MemoryIO mem);
+}
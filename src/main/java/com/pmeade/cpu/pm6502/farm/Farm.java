@@ -0,0 +1,256 @@
+/*
+ * Farm.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many independent jobs across all cores.
+ *
+ * Each job runs for a fixed quantum of cycles at a time on a work-stealing
+ * ForkJoinPool. Unfinished jobs wait in one shared FIFO queue: a job that
+ * is not finished after its quantum goes to the back of it, and every
+ * quantum runs the job at the front, so jobs are time-sliced round robin
+ * and long jobs cannot starve short ones. Quantum tasks carry no job of
+ * their own (the worker's LIFO deque only holds interchangeable tasks),
+ * and idle workers steal them. There is no thread per job, only a CPU and
+ * a copy-on-write fork of the job's image.
+ * @author pmeade
+ */
+public class Farm
+{
+    public static final long DEFAULT_QUANTUM = 100000;
+
+    public Farm() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUANTUM);
+    }
+
+    public Farm(int parallelism, long quantum) {
+        if(quantum <= 0) {
+            throw new IllegalArgumentException("Quantum must be positive: " + quantum);
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.quantum = quantum;
+        this.totalCycles = new AtomicLong();
+    }
+
+    /**
+     * @return emulated cycles per microsecond of wall time over all runs
+     */
+    public double getEmulatedMHz() {
+        long nanos = elapsedNanos;
+        return (nanos == 0) ? 0.0 : (totalCycles.get() * 1000.0) / nanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public FarmMetrics getMetrics() {
+        return metrics;
+    }
+
+    public long getTotalCycles() {
+        return totalCycles.get();
+    }
+
+    /**
+     * Run the jobs to completion.
+     * @param jobs jobs to run
+     * @return results, in the same order as the jobs
+     * @throws RuntimeException if any job failed for a reason other than
+     *         an illegal opcode (such as its completion predicate throwing)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<FarmResult> run(List<FarmJob> jobs) throws InterruptedException {
+        FarmResult[] results = new FarmResult[jobs.size()];
+        CountDownLatch done = new CountDownLatch(jobs.size());
+        ConcurrentLinkedQueue<Run> runnable = new ConcurrentLinkedQueue<Run>();
+        long start = System.nanoTime();
+        for(int i=0; i<results.length; i++) {
+            runnable.offer(new Run(jobs.get(i), results, i, done));
+        }
+        // one quantum task per unfinished job
+        for(int i=0; i<results.length; i++) {
+            pool.execute(new Quantum(runnable));
+        }
+        done.await();
+        elapsedNanos += System.nanoTime() - start;
+        RuntimeException e = failure;
+        if(e != null) {
+            failure = null;
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Count instructions, cycles, halts and BRKs into the given metrics.
+     * Each worker thread flushes its counts at the end of every quantum.
+     * Set this before calling run().
+     * @param metrics metrics to update, or null for none
+     */
+    public void setMetrics(FarmMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private class Run
+    {
+        public Run(FarmJob job, FarmResult[] results, int index, CountDownLatch done) {
+            this.job = job;
+            this.results = results;
+            this.index = index;
+            this.done = done;
+        }
+
+        /**
+         * @return true if the job needs another quantum
+         */
+        public boolean step() {
+            if(cpu == null) {
+                start();
+            }
+            long end = Math.min(cpu.getCycleCount() + quantum, budgetEnd);
+            Completion completion = job.getCompletion();
+            FarmMetrics.Batch batch = (metrics == null) ? null : metrics.local();
+            try {
+                while(cpu.getCycleCount() < end) {
+                    if(batch == null) {
+                        cpu.execute();
+                    } else {
+                        count(batch);
+                    }
+                    if((completion != null) && completion.isComplete(cpu, ram)) {
+                        finish(FarmResult.Status.COMPLETED);
+                        return false;
+                    }
+                }
+            } catch(UnsupportedOperationException e) {
+                if(batch != null) {
+                    batch.halt();
+                }
+                finish(FarmResult.Status.HALTED);
+                return false;
+            } catch(RuntimeException e) {
+                failure = e;
+                done.countDown();
+                return false;
+            } finally {
+                if(batch != null) {
+                    batch.flush();
+                }
+            }
+            if(cpu.getCycleCount() >= budgetEnd) {
+                finish(FarmResult.Status.BUDGET_EXHAUSTED);
+                return false;
+            }
+            return true;
+        }
+
+        private void count(FarmMetrics.Batch batch) {
+            int opcode = ram.read(cpu.getPC());
+            batch.count(opcode, cpu.execute());
+            if(opcode == 0x00) {
+                batch.interrupt();
+            }
+        }
+
+        private void finish(FarmResult.Status status) {
+            long cycles = cpu.getCycleCount() - startCycle;
+            results[index] = new FarmResult(status, cpu, ram, cycles, job.getCaptures());
+            totalCycles.addAndGet(cycles);
+            cpu = null;
+            ram = null;
+            done.countDown();
+        }
+
+        private void start() {
+            ram = job.getImage().fork();
+            cpu = new PM6502();
+            cpu.setMemoryIO(ram);
+            cpu.reset();
+            if(job.getEntryPoint() >= 0) {
+                cpu.setPC(job.getEntryPoint());
+            }
+            startCycle = cpu.getCycleCount();
+            long budget = job.getCycleBudget();
+            budgetEnd = (budget > Long.MAX_VALUE - startCycle) ? Long.MAX_VALUE : startCycle + budget;
+        }
+
+        private final FarmJob job;
+        private final FarmResult[] results;
+        private final int index;
+        private final CountDownLatch done;
+        private PM6502 cpu;
+        private Ram ram;
+        private long startCycle;
+        private long budgetEnd;
+    }
+
+    private static class Quantum extends RecursiveAction
+    {
+        public Quantum(ConcurrentLinkedQueue<Run> runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        protected void compute() {
+            Run run = runnable.poll();
+            if(run == null) {
+                return;
+            }
+            if(run.step()) {
+                // requeue before forking, so the new task finds a job
+                runnable.offer(run);
+                new Quantum(runnable).fork();
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final ConcurrentLinkedQueue<Run> runnable;
+    }
+
+    private final ForkJoinPool pool;
+    private final long quantum;
+    private final AtomicLong totalCycles;
+    private volatile FarmMetrics metrics;
+    private volatile long elapsedNanos;
+    private volatile RuntimeException failure;
+}
@@ -0,0 +1,100 @@
+/*
+ * FarmJob.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.util.Ram;
+
+/**
+ * An independent unit of work for a Farm: a memory image, where to start,
+ * how many cycles it may use, when it is done and which memory to
+ * collect afterwards. The image is never modified; each run works on a
+ * copy-on-write fork of it, so many jobs may share one image.
+ * @author pmeade
+ */
+public class FarmJob
+{
+    public FarmJob(Ram image) {
+        // a frozen fork: runs on other threads only ever read its pages
+        this.image = image.fork();
+        this.entryPoint = -1;
+        this.cycleBudget = Long.MAX_VALUE;
+        this.captures = new int[0];
+    }
+
+    /**
+     * Collect a range of memory into the result when the job finishes.
+     * @param address first address of the range
+     * @param length number of bytes
+     * @return this job, for chaining
+     */
+    public FarmJob capture(int address, int length) {
+        int[] c = new int[captures.length + 2];
+        System.arraycopy(captures, 0, c, 0, captures.length);
+        c[captures.length] = address;
+        c[captures.length+1] = length;
+        captures = c;
+        return this;
+    }
+
+    public FarmJob cycleBudget(long cycles) {
+        cycleBudget = cycles;
+        return this;
+    }
+
+    public int[] getCaptures() {
+        return captures;
+    }
+
+    public Completion getCompletion() {
+        return completion;
+    }
+
+    public long getCycleBudget() {
+        return cycleBudget;
+    }
+
+    public int getEntryPoint() {
+        return entryPoint;
+    }
+
+    public Ram getImage() {
+        return image;
+    }
+
+    /**
+     * Start at the given address instead of the image's reset vector.
+     * @param address entry point of the job
+     * @return this job, for chaining
+     */
+    public FarmJob startAt(int address) {
+        entryPoint = address;
+        return this;
+    }
+
+    public FarmJob until(Completion completion) {
+        this.completion = completion;
+        return this;
+    }
+
+    private final Ram image;
+    private int entryPoint;
+    private long cycleBudget;
+    private Completion completion;
+    private int[] captures;
+}
@@ -0,0 +1,138 @@
+/*
+ * FarmMetrics.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live totals across many concurrently running CPUs.
+ *
+ * Each thread counts into its own Batch with plain (unshared) fields and
+ * flushes the batch into the shared totals at a batch boundary, such as
+ * the end of a Farm quantum. The totals are LongAdders, which stripe
+ * concurrent flushes over separate cells and sum them on read, so
+ * neither counting nor flushing contends on a shared cache line.
+ * @author pmeade
+ */
+public class FarmMetrics
+{
+    public FarmMetrics() {
+        instructions = new LongAdder();
+        cycles = new LongAdder();
+        halts = new LongAdder();
+        interrupts = new LongAdder();
+        opcodes = new LongAdder[0x100];
+        for(int i=0; i<opcodes.length; i++) {
+            opcodes[i] = new LongAdder();
+        }
+        batches = new ThreadLocal<Batch>() {
+            @Override
+            protected Batch initialValue() {
+                return new Batch();
+            }
+        };
+    }
+
+    /**
+     * @return the calling thread's batch
+     */
+    public Batch local() {
+        return batches.get();
+    }
+
+    /**
+     * Sum the totals. Batches not yet flushed are not included, and the
+     * counters are read one after another, so a snapshot taken while
+     * CPUs run may be off by the batches flushed during the read.
+     * @return current totals
+     */
+    public MetricsSnapshot snapshot() {
+        long[] counts = new long[opcodes.length];
+        for(int i=0; i<counts.length; i++) {
+            counts[i] = opcodes[i].sum();
+        }
+        return new MetricsSnapshot(instructions.sum(), cycles.sum(),
+                halts.sum(), interrupts.sum(), counts);
+    }
+
+    /**
+     * Counters of one thread. Not thread safe; a Batch belongs to the
+     * thread that obtained it from local().
+     */
+    public class Batch
+    {
+        /**
+         * Count one executed instruction.
+         * @param opcode opcode of the instruction
+         * @param cycles cycles it took
+         */
+        public void count(int opcode, int cycles) {
+            opcodeCounts[opcode]++;
+            batchCycles += cycles;
+            batchInstructions++;
+        }
+
+        /**
+         * Add this batch to the totals and clear it.
+         */
+        public void flush() {
+            if(batchInstructions != 0) {
+                instructions.add(batchInstructions);
+                cycles.add(batchCycles);
+                for(int i=0; i<opcodeCounts.length; i++) {
+                    if(opcodeCounts[i] != 0) {
+                        opcodes[i].add(opcodeCounts[i]);
+                        opcodeCounts[i] = 0;
+                    }
+                }
+                batchInstructions = 0;
+                batchCycles = 0;
+            }
+            if(batchHalts != 0) {
+                halts.add(batchHalts);
+                batchHalts = 0;
+            }
+            if(batchInterrupts != 0) {
+                interrupts.add(batchInterrupts);
+                batchInterrupts = 0;
+            }
+        }
+
+        public void halt() {
+            batchHalts++;
+        }
+
+        public void interrupt() {
+            batchInterrupts++;
+        }
+
+        private final long[] opcodeCounts = new long[0x100];
+        private long batchInstructions;
+        private long batchCycles;
+        private long batchHalts;
+        private long batchInterrupts;
+    }
+
+    private final LongAdder instructions;
+    private final LongAdder cycles;
+    private final LongAdder halts;
+    private final LongAdder interrupts;
+    private final LongAdder[] opcodes;
+    private final ThreadLocal<Batch> batches;
+}
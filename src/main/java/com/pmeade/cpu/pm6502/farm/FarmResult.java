@@ -0,0 +1,113 @@
+/*
+ * FarmResult.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Outcome of a FarmJob: final registers, cycles used and the captured
+ * memory ranges.
+ * @author pmeade
+ */
+public class FarmResult
+{
+    public enum Status
+    {
+        /** the completion predicate was satisfied */
+        COMPLETED,
+        /** the job used its whole cycle budget */
+        BUDGET_EXHAUSTED,
+        /** the CPU hit an illegal opcode */
+        HALTED
+    }
+
+    public FarmResult(Status status, Cpu6502 cpu, MemoryIO mem, long cycles, int[] captures) {
+        this.status = status;
+        this.ac = cpu.getAC();
+        this.xr = cpu.getXR();
+        this.yr = cpu.getYR();
+        this.sp = cpu.getSP();
+        this.sr = cpu.getSR();
+        this.pc = cpu.getPC();
+        this.cycles = cycles;
+        this.memory = new byte[captures.length / 2][];
+        for(int i=0; i<memory.length; i++) {
+            int address = captures[i*2];
+            memory[i] = new byte[captures[i*2+1]];
+            for(int j=0; j<memory[i].length; j++) {
+                memory[i][j] = (byte) mem.read((address + j) & 0xffff);
+            }
+        }
+    }
+
+    public int getAC() {
+        return ac;
+    }
+
+    /**
+     * @param i index of the capture, in the order they were added to the job
+     * @return captured memory
+     */
+    public byte[] getCapture(int i) {
+        return memory[i];
+    }
+
+    public int getCaptureCount() {
+        return memory.length;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+
+    public int getSP() {
+        return sp;
+    }
+
+    public int getSR() {
+        return sr;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getXR() {
+        return xr;
+    }
+
+    public int getYR() {
+        return yr;
+    }
+
+    private final Status status;
+    private final int ac;
+    private final int xr;
+    private final int yr;
+    private final int sp;
+    private final int sr;
+    private final int pc;
+    private final long cycles;
+    private final byte[][] memory;
+}
@@ -0,0 +1,33 @@
+/*
+ * JobSource.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+/**
+ * Creates the jobs of a sharded campaign. Every worker process builds its
+ * own instance from the class name, so implementations must be public,
+ * have a public no-argument constructor, and create the same job for the
+ * same index in every process.
+ * @author pmeade
+ */
+public interface JobSource
+{
+    public int getJobCount();
+
+    public FarmJob createJob(int index);
+}
@@ -0,0 +1,760 @@
+/*
+ * LockstepEngine.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.AddressMode;
+import com.pmeade.cpu.pm6502.util.Ram;
+
+import static com.pmeade.cpu.pm6502.Cpu6502.*;
+
+/**
+ * Runs a batch of 6502s in lockstep, for the same program over many
+ * different inputs.
+ *
+ * The registers of every lane are kept in parallel primitive arrays and
+ * each lane has its own flat 64K of RAM (no devices). A step executes one
+ * instruction on every running lane: lanes are grouped by PC (in O(N)
+ * with a PC-indexed bucket list), and each group is run through the
+ * handler of its opcode in three passes (fetch and address, operate,
+ * count cycles), each pass switching on the address mode or mnemonic
+ * once for the whole group. Lanes that diverge simply fall into
+ * different groups. Lanes whose code differs at the same PC are split
+ * by opcode.
+ *
+ * Results are identical, cycle for cycle, to running each lane on its
+ * own PM6502. A lane that hits an illegal opcode is halted, with its PC
+ * past the opcode as PM6502 leaves it.
+ * @author pmeade
+ */
+public class LockstepEngine
+{
+    public LockstepEngine(int lanes) {
+        this.lanes = lanes;
+        ac = new int[lanes];
+        xr = new int[lanes];
+        yr = new int[lanes];
+        sp = new int[lanes];
+        sr = new int[lanes];
+        pc = new int[lanes];
+        s1 = new int[lanes];
+        clock = new long[lanes];
+        limit = new long[lanes];
+        halted = new boolean[lanes];
+        memory = new byte[lanes][];
+        for(int i=0; i<lanes; i++) {
+            memory[i] = new byte[Ram.SIZE];
+            limit[i] = Long.MAX_VALUE;
+        }
+        head = new int[0x10000];
+        for(int i=0; i<head.length; i++) {
+            head[i] = -1;
+        }
+        next = new int[lanes];
+        touched = new int[lanes];
+        group = new int[lanes];
+        rest = new int[lanes];
+        ea = new int[lanes];
+        base = new int[lanes];
+        cyc = new int[lanes];
+    }
+
+    public int getAC(int lane) { return ac[lane]; }
+    public long getCycleCount(int lane) { return clock[lane]; }
+    public int getLanes() { return lanes; }
+    public int getPC(int lane) { return pc[lane]; }
+    public int getSP(int lane) { return sp[lane]; }
+    public int getSR(int lane) { return sr[lane]; }
+    public int getXR(int lane) { return xr[lane]; }
+    public int getYR(int lane) { return yr[lane]; }
+
+    public boolean isHalted(int lane) {
+        return halted[lane];
+    }
+
+    /**
+     * Copy a memory image into a lane.
+     * @param lane lane to load
+     * @param image memory image
+     */
+    public void load(int lane, Ram image) {
+        for(int p=0; p<Ram.PAGES; p++) {
+            System.arraycopy(image.getPage(p), 0, memory[lane], p * Ram.PAGE_SIZE, Ram.PAGE_SIZE);
+        }
+    }
+
+    public int read(int lane, int address) {
+        return memory[lane][address] & 0xff;
+    }
+
+    public void reset(int lane) {
+        pc[lane] = mem(lane, RESET_LO) | (mem(lane, RESET_HI) << 8);
+        sp[lane] = 0xFF;
+        sr[lane] = FLAG_RESERVED | FLAG_ZERO;
+        halted[lane] = false;
+    }
+
+    /**
+     * Run every lane for the given number of cycles. Each lane stops at the
+     * first instruction boundary at or past its own target, or when halted.
+     * @param cycles number of cycles to run each lane
+     */
+    public void run(long cycles) {
+        for(int i=0; i<lanes; i++) {
+            limit[i] = clock[i] + cycles;
+        }
+        while(step() > 0) {
+            // until every lane has reached its limit or halted
+        }
+        for(int i=0; i<lanes; i++) {
+            limit[i] = Long.MAX_VALUE;
+        }
+    }
+
+    public void setAC(int lane, int value) { ac[lane] = value; }
+    public void setPC(int lane, int value) { pc[lane] = value; }
+    public void setSP(int lane, int value) { sp[lane] = value; }
+    public void setSR(int lane, int value) { sr[lane] = value; }
+    public void setXR(int lane, int value) { xr[lane] = value; }
+    public void setYR(int lane, int value) { yr[lane] = value; }
+
+    /**
+     * Execute one instruction on every running lane.
+     * @return number of opcode dispatches made; 0 if no lane is running
+     */
+    public int step() {
+        int pcs = 0;
+        for(int l=0; l<lanes; l++) {
+            if(!halted[l] && (clock[l] < limit[l])) {
+                int p = pc[l];
+                if(head[p] < 0) { touched[pcs++] = p; }
+                next[l] = head[p];
+                head[p] = l;
+            }
+        }
+        int dispatches = 0;
+        for(int t=0; t<pcs; t++) {
+            int p = touched[t];
+            int count = 0;
+            for(int l=head[p]; l>=0; l=next[l]) {
+                rest[count++] = l;
+            }
+            head[p] = -1;
+            while(count > 0) {
+                int opcode = mem(rest[0], p);
+                int n = 0;
+                int r = 0;
+                for(int k=0; k<count; k++) {
+                    int l = rest[k];
+                    if(mem(l, p) == opcode) { group[n++] = l; }
+                    else                    { rest[r++] = l; }
+                }
+                dispatch(opcode, n);
+                dispatches++;
+                count = r;
+            }
+        }
+        return dispatches;
+    }
+
+    public void write(int lane, int address, int data) {
+        memory[lane][address] = (byte) data;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void dispatch(int opcode, int n) {
+        AddressMode mode = ADDRESS_MODES[opcode];
+        for(int k=0; k<n; k++) {
+            int l = group[k];
+            pc[l] = (pc[l] + 1) & 0xffff;
+            cyc[k] = CYCLES[opcode];
+        }
+        if(mode == AddressMode.BAD) {
+            for(int k=0; k<n; k++) {
+                halted[group[k]] = true;
+            }
+            return;
+        }
+        address(mode, EXTRA_CYCLES[opcode], n);
+        operate(opcode, mode, n);
+        for(int k=0; k<n; k++) {
+            clock[group[k]] += cyc[k];
+        }
+    }
+
+    private void address(AddressMode mode, boolean extra, int n) {
+        switch(mode) {
+            case ABS:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ea[k] = fetch(l) | (fetch(l) << 8);
+                }
+                break;
+            case ABX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    base[k] = fetch(l) | (fetch(l) << 8);
+                    ea[k] = (base[k] + xr[l]) & 0xffff;
+                    if(extra && ((ea[k] & 0xff00) != (base[k] & 0xff00))) { cyc[k]++; }
+                }
+                break;
+            case ABY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    base[k] = fetch(l) | (fetch(l) << 8);
+                    ea[k] = (base[k] + yr[l]) & 0xffff;
+                    if(extra && ((ea[k] & 0xff00) != (base[k] & 0xff00))) { cyc[k]++; }
+                }
+                break;
+            case ACC:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    s1[l] = ac[l];
+                }
+                break;
+            case IDX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    int zp = (fetch(l) + xr[l]) & 0xff;
+                    ea[k] = mem(l, zp) | (mem(l, (zp + 1) & 0xff) << 8);
+                }
+                break;
+            case IDY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    int zp = fetch(l);
+                    base[k] = mem(l, zp) | (mem(l, (zp + 1) & 0xff) << 8);
+                    ea[k] = (base[k] + yr[l]) & 0xffff;
+                    if(extra && ((ea[k] & 0xff00) != (base[k] & 0xff00))) { cyc[k]++; }
+                }
+                break;
+            case IMM:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    s1[l] = fetch(l);
+                }
+                break;
+            case IMP:
+                break;
+            case IND:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    int ptr = fetch(l) | (fetch(l) << 8);
+                    ea[k] = mem(l, ptr) | (mem(l, (ptr + 1) & 0xffff) << 8);
+                }
+                break;
+            case REL:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    int offset = fetch(l);
+                    base[k] = pc[l];
+                    ea[k] = (pc[l] + ((byte) offset)) & 0xffff;
+                }
+                break;
+            case ZPG:
+                for(int k=0; k<n; k++) {
+                    ea[k] = fetch(group[k]);
+                }
+                break;
+            case ZPX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ea[k] = (fetch(l) + xr[l]) & 0xff;
+                }
+                break;
+            case ZPY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ea[k] = (fetch(l) + yr[l]) & 0xff;
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("AddressMode: " + mode);
+        }
+    }
+
+    private void operate(int opcode, AddressMode mode, int n) {
+        int c1;
+        int temp;
+        switch(MNEMONIC[opcode]) {
+            case ADC:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    c1 = (((sr[l] & FLAG_CARRY) == FLAG_CARRY) ? 1 : 0);
+                    temp = s1[l] + ac[l] + c1;
+                    updateZ(l, temp & 0xff);
+                    boolean decimal = (sr[l] & FLAG_DECIMAL) == FLAG_DECIMAL;
+                    if(decimal && (((ac[l] & 0xf) + (s1[l] & 0xf) + c1) > 9)) { temp += 6; }
+                    updateN(l, temp);
+                    setFlag(l, FLAG_OVERFLOW, (((ac[l] ^ s1[l]) & 0x80) == 0x00) && (((ac[l] ^ temp) & 0x80) != 0x00));
+                    if(decimal) {
+                        if(temp > 0x99) { temp += 96; }
+                        setFlag(l, FLAG_CARRY, temp > 0x99);
+                    } else {
+                        setFlag(l, FLAG_CARRY, temp > 0xff);
+                    }
+                    ac[l] = temp & 0xff;
+                }
+                break;
+            case AND:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    ac[l] &= s1[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case ASL:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    setFlag(l, FLAG_CARRY, (s1[l] & 0x80) == 0x80);
+                    s1[l] = (s1[l] << 1) & 0xfe;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case BCC: branch(n, FLAG_CARRY, false); break;
+            case BCS: branch(n, FLAG_CARRY, true); break;
+            case BEQ: branch(n, FLAG_ZERO, true); break;
+            case BMI: branch(n, FLAG_NEGATIVE, true); break;
+            case BNE: branch(n, FLAG_ZERO, false); break;
+            case BPL: branch(n, FLAG_NEGATIVE, false); break;
+            case BVC: branch(n, FLAG_OVERFLOW, false); break;
+            case BVS: branch(n, FLAG_OVERFLOW, true); break;
+            case BIT:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    updateNV(l, s1[l]);
+                    s1[l] &= ac[l];
+                    updateZ(l, s1[l]);
+                }
+                break;
+            case BRK:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    pc[l] = (pc[l] + 1) & 0xffff;
+                    push(l, (pc[l] & 0xff00) >> 8);
+                    push(l, pc[l] & 0xff);
+                    sr[l] |= (FLAG_BREAK | FLAG_RESERVED);
+                    push(l, sr[l]);
+                    sr[l] |= FLAG_INTERRUPT;
+                    pc[l] = mem(l, IRQ_LO) | (mem(l, IRQ_HI) << 8);
+                }
+                break;
+            case CLC: clear(n, FLAG_CARRY); break;
+            case CLD: clear(n, FLAG_DECIMAL); break;
+            case CLI: clear(n, FLAG_INTERRUPT); break;
+            case CLV: clear(n, FLAG_OVERFLOW); break;
+            case CMP: compare(n, ac); break;
+            case CPX: compare(n, xr); break;
+            case CPY: compare(n, yr); break;
+            case DEC:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    s1[l] = (s1[l] - 1) & 0xff;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case DEX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    xr[l] = (xr[l] - 1) & 0xff;
+                    updateNZ(l, xr[l]);
+                }
+                break;
+            case DEY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    yr[l] = (yr[l] - 1) & 0xff;
+                    updateNZ(l, yr[l]);
+                }
+                break;
+            case EOR:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    ac[l] ^= s1[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case INC:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    s1[l] = (s1[l] + 1) & 0xff;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case INX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    xr[l] = (xr[l] + 1) & 0xff;
+                    updateNZ(l, xr[l]);
+                }
+                break;
+            case INY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    yr[l] = (yr[l] + 1) & 0xff;
+                    updateNZ(l, yr[l]);
+                }
+                break;
+            case JMP:
+                for(int k=0; k<n; k++) {
+                    pc[group[k]] = ea[k];
+                }
+                break;
+            case JSR:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    int ret = pc[l] - 1;
+                    push(l, (ret & 0xff00) >> 8);
+                    push(l, ret & 0xff);
+                    pc[l] = ea[k];
+                }
+                break;
+            case LDA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    ac[l] = s1[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case LDX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    xr[l] = s1[l];
+                    updateNZ(l, xr[l]);
+                }
+                break;
+            case LDY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    yr[l] = s1[l];
+                    updateNZ(l, yr[l]);
+                }
+                break;
+            case LSR:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    setFlag(l, FLAG_CARRY, (s1[l] & 0x01) == 0x01);
+                    s1[l] >>= 1;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case NOP:
+                break;
+            case ORA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    ac[l] |= s1[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case PHA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    push(l, ac[l]);
+                }
+                break;
+            case PHP:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    sr[l] |= FLAG_RESERVED;
+                    push(l, sr[l]);
+                }
+                break;
+            case PLA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ac[l] = pop(l);
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case PLP:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    sr[l] = pop(l) | FLAG_RESERVED;
+                }
+                break;
+            case ROL:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    s1[l] <<= 1;
+                    if((sr[l] & FLAG_CARRY) == FLAG_CARRY) { s1[l] |= 0x01; }
+                    setFlag(l, FLAG_CARRY, s1[l] > 0xff);
+                    s1[l] &= 0xff;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case ROR:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    if((sr[l] & FLAG_CARRY) == FLAG_CARRY) { s1[l] |= 0x100; }
+                    setFlag(l, FLAG_CARRY, (s1[l] & 0x01) == 0x01);
+                    s1[l] >>= 1;
+                    updateNZ(l, s1[l]);
+                    store(l, k, mode);
+                }
+                break;
+            case RTI:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    sr[l] = pop(l) | FLAG_RESERVED;
+                    pc[l] = pop(l);
+                    pc[l] |= (pop(l) << 8);
+                }
+                break;
+            case RTS:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    pc[l] = pop(l);
+                    pc[l] |= (pop(l) << 8);
+                    pc[l] = (pc[l] + 1) & 0xffff;
+                }
+                break;
+            case SBC:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    load(l, k, mode);
+                    c1 = (((sr[l] & FLAG_CARRY) == FLAG_CARRY) ? 0 : 1);
+                    temp = ac[l] - s1[l] - c1;
+                    updateN(l, temp);
+                    updateZ(l, temp & 0xff);
+                    setFlag(l, FLAG_OVERFLOW, (((ac[l] ^ s1[l]) & 0x80) != 0x00) && (((ac[l] ^ temp) & 0x80) != 0x00));
+                    if((sr[l] & FLAG_DECIMAL) == FLAG_DECIMAL) {
+                        if(((ac[l] & 0xf) - c1) < (s1[l] & 0xf)) { temp -= 0x6; }
+                        if(temp > 0x99) { temp -= 0x60; }
+                    }
+                    setFlag(l, FLAG_CARRY, temp < 0x100);
+                    ac[l] = temp & 0xff;
+                }
+                break;
+            case SEC: set(n, FLAG_CARRY); break;
+            case SED: set(n, FLAG_DECIMAL); break;
+            case SEI: set(n, FLAG_INTERRUPT); break;
+            case STA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    s1[l] = ac[l];
+                    store(l, k, mode);
+                }
+                break;
+            case STX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    s1[l] = xr[l];
+                    store(l, k, mode);
+                }
+                break;
+            case STY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    s1[l] = yr[l];
+                    store(l, k, mode);
+                }
+                break;
+            case TAX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    xr[l] = ac[l];
+                    updateNZ(l, xr[l]);
+                }
+                break;
+            case TAY:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    yr[l] = ac[l];
+                    updateNZ(l, yr[l]);
+                }
+                break;
+            case TSX:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    xr[l] = sp[l];
+                    updateNZ(l, xr[l]);
+                }
+                break;
+            case TXA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ac[l] = xr[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            case TXS:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    sp[l] = xr[l];
+                }
+                break;
+            case TYA:
+                for(int k=0; k<n; k++) {
+                    int l = group[k];
+                    ac[l] = yr[l];
+                    updateNZ(l, ac[l]);
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Opcode: 0x" + Integer.toHexString(opcode));
+        }
+    }
+
+    private void branch(int n, int flag, boolean taken) {
+        for(int k=0; k<n; k++) {
+            int l = group[k];
+            if(((sr[l] & flag) == flag) == taken) {
+                cyc[k]++;
+                if((ea[k] & 0xff00) != (base[k] & 0xff00)) { cyc[k]++; }
+                pc[l] = ea[k];
+            }
+        }
+    }
+
+    private void clear(int n, int flag) {
+        for(int k=0; k<n; k++) {
+            sr[group[k]] &= ~flag;
+        }
+    }
+
+    /**
+     * Compare as PM6502 does: against the operand left in s1 by the
+     * address mode, and keeping only the carry flag when there is no borrow.
+     */
+    private void compare(int n, int[] reg) {
+        for(int k=0; k<n; k++) {
+            int l = group[k];
+            s1[l] = reg[l] - s1[l];
+            if(s1[l] < 0) { sr[l] |= FLAG_CARRY; }
+            else          { sr[l] &= FLAG_CARRY; }
+            updateN(l, s1[l]);
+            updateZ(l, s1[l] & 0xff);
+        }
+    }
+
+    private int fetch(int l) {
+        int data = mem(l, pc[l]);
+        pc[l] = (pc[l] + 1) & 0xffff;
+        return data;
+    }
+
+    private void load(int l, int k, AddressMode mode) {
+        if((mode != AddressMode.ACC) && (mode != AddressMode.IMM)) {
+            s1[l] = mem(l, ea[k]);
+        }
+    }
+
+    private int mem(int l, int address) {
+        return memory[l][address] & 0xff;
+    }
+
+    private int pop(int l) {
+        sp[l] = (sp[l] + 1) & 0xff;
+        return mem(l, 0x100 | sp[l]);
+    }
+
+    private void push(int l, int value) {
+        memory[l][0x100 | sp[l]] = (byte) value;
+        sp[l] = (sp[l] - 1) & 0xff;
+    }
+
+    private void set(int n, int flag) {
+        for(int k=0; k<n; k++) {
+            sr[group[k]] |= flag;
+        }
+    }
+
+    private void setFlag(int l, int flag, boolean value) {
+        if(value) { sr[l] |= flag;  }
+        else      { sr[l] &= ~flag; }
+    }
+
+    private void store(int l, int k, AddressMode mode) {
+        switch(mode) {
+            case IMM:
+                break;
+            case ACC:
+                ac[l] = s1[l];
+                break;
+            default:
+                memory[l][ea[k]] = (byte) s1[l];
+                break;
+        }
+    }
+
+    private void updateN(int l, int value) {
+        setFlag(l, FLAG_NEGATIVE, (value & 0x80) == 0x80);
+        sr[l] |= FLAG_RESERVED;
+    }
+
+    private void updateNV(int l, int value) {
+        setFlag(l, FLAG_NEGATIVE, (value & 0x80) == 0x80);
+        setFlag(l, FLAG_OVERFLOW, (value & 0x40) == 0x40);
+        sr[l] |= FLAG_RESERVED;
+    }
+
+    private void updateNZ(int l, int value) {
+        setFlag(l, FLAG_NEGATIVE, (value & 0x80) == 0x80);
+        setFlag(l, FLAG_ZERO, value == 0);
+        sr[l] |= FLAG_RESERVED;
+    }
+
+    private void updateZ(int l, int value) {
+        setFlag(l, FLAG_ZERO, value == 0);
+        sr[l] |= FLAG_RESERVED;
+    }
+
+    private final int lanes;
+    private final int[] ac;
+    private final int[] xr;
+    private final int[] yr;
+    private final int[] sp;
+    private final int[] sr;
+    private final int[] pc;
+    private final int[] s1;
+    private final long[] clock;
+    private final long[] limit;
+    private final boolean[] halted;
+    private final byte[][] memory;
+
+    // scratch for grouping lanes and for the group being dispatched
+    private final int[] head;
+    private final int[] next;
+    private final int[] touched;
+    private final int[] group;
+    private final int[] rest;
+    private final int[] ea;
+    private final int[] base;
+    private final int[] cyc;
+}
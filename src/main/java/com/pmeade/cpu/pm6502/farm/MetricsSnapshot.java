@@ -0,0 +1,60 @@
+/*
+ * MetricsSnapshot.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+/**
+ * Totals read from FarmMetrics at one point in time.
+ * @author pmeade
+ */
+public class MetricsSnapshot
+{
+    public MetricsSnapshot(long instructions, long cycles, long halts, long interrupts, long[] opcodes) {
+        this.instructions = instructions;
+        this.cycles = cycles;
+        this.halts = halts;
+        this.interrupts = interrupts;
+        this.opcodes = opcodes;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public long getHalts() {
+        return halts;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getInterrupts() {
+        return interrupts;
+    }
+
+    public long getOpcodeCount(int opcode) {
+        return opcodes[opcode];
+    }
+
+    private final long instructions;
+    private final long cycles;
+    private final long halts;
+    private final long interrupts;
+    private final long[] opcodes;
+}
@@ -0,0 +1,307 @@
+/*
+ * ResultTable.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped table of job results shared by the processes of a
+ * sharded campaign.
+ *
+ * Each job owns a fixed-offset slot, so workers write results without any
+ * coordination. Totals and the coverage bitmap are updated with atomic
+ * operations on the mapping (VarHandle views of the buffer), which are
+ * atomic across processes mapping the same file. A slot's state word is
+ * written last with release semantics, so a reader that sees it set also
+ * sees the rest of the slot.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   0  int  MAGIC ('PM6R')
+ *   4  int  VERSION
+ *   8  int  number of slots
+ *   12 int  capture bytes per slot
+ *   16 long jobs completed
+ *   24 long jobs that exhausted their budget
+ *   32 long jobs halted
+ *   40 long total cycles
+ *   48 long workers finished
+ *   56 long reserved
+ *   64 coverage bitmap, one bit per address (8K)
+ *   then the slots: int state, int status, long cycles,
+ *        byte a, x, y, sp, sr, pad, short pc, long reserved, captures
+ * </pre>
+ * @author pmeade
+ */
+public class ResultTable implements Closeable
+{
+    public static final int MAGIC = 0x504D3652;
+    public static final int VERSION = 1;
+
+    public static ResultTable create(Path path, int slots, int captureSize) throws IOException {
+        if((slots < 0) || (captureSize < 0)) {
+            throw new IllegalArgumentException("Bad result table size: " + slots + " x " + captureSize);
+        }
+        int slotSize = getSlotSize(captureSize);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    SLOTS_OFFSET + ((long) slots * slotSize));
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slots);
+            buffer.putInt(12, captureSize);
+            return new ResultTable(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static ResultTable open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if((buffer.capacity() < SLOTS_OFFSET) || (buffer.getInt(0) != MAGIC)
+                    || (buffer.getInt(4) != VERSION)) {
+                throw new IOException("Not a result table: " + path);
+            }
+            return new ResultTable(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void close() {
+        buffer.force();
+    }
+
+    /**
+     * Copy a slot's captured memory, all ranges back to back.
+     * @param slot index of the job
+     * @param dst destination; at most getCaptureSize() bytes are copied
+     */
+    public void getCapture(int slot, byte[] dst) {
+        int offset = getSlotOffset(slot) + SLOT_HEADER_SIZE;
+        for(int i=0; i<Math.min(dst.length, captureSize); i++) {
+            dst[i] = buffer.get(offset + i);
+        }
+    }
+
+    public int getCaptureSize() {
+        return captureSize;
+    }
+
+    public long getCompleted() {
+        return getCounter(COMPLETED);
+    }
+
+    /**
+     * @return number of addresses marked as covered
+     */
+    public int getCoverageCount() {
+        int count = 0;
+        for(int i=0; i<COVERAGE_SIZE; i+=8) {
+            count += Long.bitCount(buffer.getLong(COVERAGE_OFFSET + i));
+        }
+        return count;
+    }
+
+    public long getCycles(int slot) {
+        return buffer.getLong(getSlotOffset(slot) + 8);
+    }
+
+    public long getExhausted() {
+        return getCounter(EXHAUSTED);
+    }
+
+    public long getHalted() {
+        return getCounter(HALTED);
+    }
+
+    public int getAC(int slot) {
+        return buffer.get(getSlotOffset(slot) + 16) & 0xff;
+    }
+
+    public int getPC(int slot) {
+        return buffer.getShort(getSlotOffset(slot) + 22) & 0xffff;
+    }
+
+    public int getSP(int slot) {
+        return buffer.get(getSlotOffset(slot) + 19) & 0xff;
+    }
+
+    public int getSR(int slot) {
+        return buffer.get(getSlotOffset(slot) + 20) & 0xff;
+    }
+
+    public int getSlotCount() {
+        return slots;
+    }
+
+    public FarmResult.Status getStatus(int slot) {
+        return FarmResult.Status.values()[buffer.getInt(getSlotOffset(slot) + 4)];
+    }
+
+    public long getTotalCycles() {
+        return getCounter(TOTAL_CYCLES);
+    }
+
+    public long getWorkersDone() {
+        return getCounter(WORKERS_DONE);
+    }
+
+    public int getXR(int slot) {
+        return buffer.get(getSlotOffset(slot) + 17) & 0xff;
+    }
+
+    public int getYR(int slot) {
+        return buffer.get(getSlotOffset(slot) + 18) & 0xff;
+    }
+
+    public boolean isCovered(int address) {
+        int offset = COVERAGE_OFFSET + ((address >> 6) << 3);
+        return (buffer.getLong(offset) & (1L << (address & 0x3f))) != 0;
+    }
+
+    /**
+     * @param slot index of the job
+     * @return true, if a worker has written the slot
+     */
+    public boolean isWritten(int slot) {
+        return ((int) INTS.getAcquire(buffer, getSlotOffset(slot))) != 0;
+    }
+
+    /**
+     * Atomically merge a coverage bitmap into the table.
+     * @param coverage bitmap of 1024 longs, bit n of word w is address w*64+n
+     */
+    public void mergeCoverage(long[] coverage) {
+        for(int i=0; i<coverage.length; i++) {
+            if(coverage[i] != 0) {
+                LONGS.getAndBitwiseOr(buffer, COVERAGE_OFFSET + (i << 3), coverage[i]);
+            }
+        }
+    }
+
+    /**
+     * Count a finished worker.
+     */
+    public void workerDone() {
+        LONGS.getAndAdd(buffer, WORKERS_DONE, 1L);
+    }
+
+    /**
+     * Store a job's result in its slot and add it to the totals.
+     * @param slot index of the job
+     * @param result result to store
+     */
+    public void write(int slot, FarmResult result) {
+        int offset = getSlotOffset(slot);
+        buffer.putInt(offset + 4, result.getStatus().ordinal());
+        buffer.putLong(offset + 8, result.getCycles());
+        buffer.put(offset + 16, (byte) result.getAC());
+        buffer.put(offset + 17, (byte) result.getXR());
+        buffer.put(offset + 18, (byte) result.getYR());
+        buffer.put(offset + 19, (byte) result.getSP());
+        buffer.put(offset + 20, (byte) result.getSR());
+        buffer.putShort(offset + 22, (short) result.getPC());
+        int pos = offset + SLOT_HEADER_SIZE;
+        int end = pos + captureSize;
+        for(int i=0; i<result.getCaptureCount(); i++) {
+            byte[] capture = result.getCapture(i);
+            if(pos + capture.length > end) {
+                throw new IllegalArgumentException("Captures exceed " + captureSize + " bytes per slot");
+            }
+            for(byte b : capture) {
+                buffer.put(pos++, b);
+            }
+        }
+        INTS.setRelease(buffer, offset, 1);
+        switch(result.getStatus()) {
+            case COMPLETED:
+                LONGS.getAndAdd(buffer, COMPLETED, 1L);
+                break;
+            case BUDGET_EXHAUSTED:
+                LONGS.getAndAdd(buffer, EXHAUSTED, 1L);
+                break;
+            default:
+                LONGS.getAndAdd(buffer, HALTED, 1L);
+                break;
+        }
+        LONGS.getAndAdd(buffer, TOTAL_CYCLES, result.getCycles());
+    }
+
+    // ------------------------------------------------------------------------
+
+    private ResultTable(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.slots = buffer.getInt(8);
+        this.captureSize = buffer.getInt(12);
+        this.slotSize = getSlotSize(captureSize);
+    }
+
+    private static int getSlotSize(int captureSize) {
+        return SLOT_HEADER_SIZE + ((captureSize + 7) & ~7);
+    }
+
+    private long getCounter(int offset) {
+        return (long) LONGS.getVolatile(buffer, offset);
+    }
+
+    private int getSlotOffset(int slot) {
+        if((slot < 0) || (slot >= slots)) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " of " + slots);
+        }
+        return SLOTS_OFFSET + (slot * slotSize);
+    }
+
+    private static final VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int COMPLETED = 16;
+    private static final int EXHAUSTED = 24;
+    private static final int HALTED = 32;
+    private static final int TOTAL_CYCLES = 40;
+    private static final int WORKERS_DONE = 48;
+    private static final int COVERAGE_OFFSET = 64;
+    private static final int COVERAGE_SIZE = 0x10000 / 8;
+    private static final int SLOTS_OFFSET = COVERAGE_OFFSET + COVERAGE_SIZE;
+    private static final int SLOT_HEADER_SIZE = 32;
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int captureSize;
+    private final int slotSize;
+}
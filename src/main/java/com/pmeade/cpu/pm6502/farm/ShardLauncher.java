@@ -0,0 +1,115 @@
+/*
+ * ShardLauncher.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a campaign across several local worker JVMs, each running a
+ * ShardWorker with its own Farm and heap.
+ *
+ * Nothing is serialized: each worker is given the name of the JobSource
+ * class and builds its own jobs, and writes its results straight into a
+ * shared memory-mapped ResultTable, which the launcher returns once every
+ * worker has exited.
+ * @author pmeade
+ */
+public class ShardLauncher
+{
+    public ShardLauncher(Class<? extends JobSource> source, int workers, int captureSize) {
+        if(workers <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workers);
+        }
+        this.source = source;
+        this.workers = workers;
+        this.captureSize = captureSize;
+        this.parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+        this.jvmArgs = new ArrayList<String>();
+    }
+
+    /**
+     * Pass an option (such as -Xmx2g) to every worker JVM.
+     * @param arg JVM option
+     * @return this launcher, for chaining
+     */
+    public ShardLauncher jvmArg(String arg) {
+        jvmArgs.add(arg);
+        return this;
+    }
+
+    public ShardLauncher parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Run the campaign.
+     * @param path file to hold the result table
+     * @return result table, with every slot written
+     * @throws IllegalStateException if a worker fails
+     */
+    public ResultTable run(Path path) throws IOException, InterruptedException {
+        JobSource jobs;
+        try {
+            jobs = source.getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create job source " + source.getName(), e);
+        }
+        ResultTable table = ResultTable.create(path, jobs.getJobCount(), captureSize);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<Process>();
+        try {
+            for(int shard=0; shard<workers; shard++) {
+                List<String> command = new ArrayList<String>();
+                command.add(java);
+                command.addAll(jvmArgs);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ShardWorker.class.getName());
+                command.add(path.toAbsolutePath().toString());
+                command.add(source.getName());
+                command.add(Integer.toString(shard));
+                command.add(Integer.toString(workers));
+                command.add(Integer.toString(parallelism));
+                processes.add(new ProcessBuilder(command).inheritIO().start());
+            }
+            for(int shard=0; shard<workers; shard++) {
+                int status = processes.get(shard).waitFor();
+                if(status != 0) {
+                    throw new IllegalStateException("Worker " + shard + " exited with status " + status);
+                }
+            }
+        } finally {
+            for(Process process : processes) {
+                process.destroy();
+            }
+        }
+        return table;
+    }
+
+    private final Class<? extends JobSource> source;
+    private final int workers;
+    private final int captureSize;
+    private final List<String> jvmArgs;
+    private int parallelism;
+}
@@ -0,0 +1,135 @@
+/*
+ * ShardWorker.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Worker process of a sharded campaign, started by ShardLauncher. Runs
+ * every job whose index is congruent to its shard number, modulo the
+ * number of shards, on a local Farm, and writes each result to the job's
+ * slot of the shared ResultTable. Jobs run in chunks, so a worker's heap
+ * only ever holds one chunk of jobs and their coverage bitmaps.
+ *
+ * Usage: ShardWorker resultFile jobSourceClass shard shards parallelism
+ * @author pmeade
+ */
+public class ShardWorker
+{
+    public static final int CHUNK_SIZE = 256;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 5) {
+            System.err.println("Usage: ShardWorker resultFile jobSourceClass shard shards parallelism");
+            System.exit(2);
+        }
+        Path path = Paths.get(args[0]);
+        JobSource source = (JobSource) Class.forName(args[1]).getDeclaredConstructor().newInstance();
+        int shard = Integer.parseInt(args[2]);
+        int shards = Integer.parseInt(args[3]);
+        int parallelism = Integer.parseInt(args[4]);
+        ResultTable table = ResultTable.open(path);
+        try {
+            new ShardWorker(source, table, parallelism).run(shard, shards);
+        } finally {
+            table.close();
+        }
+    }
+
+    public ShardWorker(JobSource source, ResultTable table, int parallelism) {
+        this.source = source;
+        this.table = table;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Run this worker's share of the jobs.
+     * @param shard number of this shard
+     * @param shards total number of shards
+     */
+    public void run(int shard, int shards) throws InterruptedException {
+        Farm farm = new Farm(parallelism, Farm.DEFAULT_QUANTUM);
+        try {
+            int count = source.getJobCount();
+            int index = shard;
+            while(index < count) {
+                List<Integer> indexes = new ArrayList<Integer>();
+                List<FarmJob> jobs = new ArrayList<FarmJob>();
+                List<Coverage> coverage = new ArrayList<Coverage>();
+                for(; (index < count) && (jobs.size() < CHUNK_SIZE); index += shards) {
+                    FarmJob job = source.createJob(index);
+                    Coverage c = new Coverage(job);
+                    indexes.add(index);
+                    jobs.add(job.until(c));
+                    coverage.add(c);
+                }
+                List<FarmResult> results = farm.run(jobs);
+                for(int i=0; i<results.size(); i++) {
+                    table.write(indexes.get(i), results.get(i));
+                    table.mergeCoverage(coverage.get(i).bitmap);
+                }
+            }
+            table.workerDone();
+        } finally {
+            farm.shutdown();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Marks the address of every instruction the job executes, then defers
+     * to the job's own completion predicate. Completion is checked after
+     * each instruction, so this marks the next one; the entry point is
+     * marked up front.
+     */
+    private static class Coverage implements Completion
+    {
+        public Coverage(FarmJob job) {
+            this.completion = job.getCompletion();
+            this.bitmap = new long[0x10000 / 64];
+            int entry = job.getEntryPoint();
+            if(entry < 0) {
+                entry = job.getImage().read(0xfffc) | (job.getImage().read(0xfffd) << 8);
+            }
+            mark(entry);
+        }
+
+        public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+            mark(cpu.getPC());
+            return (completion != null) && completion.isComplete(cpu, mem);
+        }
+
+        private void mark(int address) {
+            bitmap[address >> 6] |= (1L << (address & 0x3f));
+        }
+
+        private final Completion completion;
+        private final long[] bitmap;
+    }
+
+    private final JobSource source;
+    private final ResultTable table;
+    private final int parallelism;
+}
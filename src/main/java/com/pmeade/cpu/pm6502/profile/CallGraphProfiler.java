@@ -0,0 +1,238 @@
+/*
+ * CallGraphProfiler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Attributes cycles to guest routines by keeping a shadow call stack.
+ *
+ * A frame is entered by JSR, BRK, doNMI() and doIRQ(), and remembers the
+ * stack pointer from before the entry. A frame ends as soon as the stack
+ * pointer rises back to that value, whatever instruction does it. So a
+ * normal RTS or RTI ends it, and so does a routine that discards its
+ * return address (PLA PLA) or resets the stack (TXS). An RTS used as a
+ * computed jump, after pushing its own target, leaves the stack pointer
+ * below the frame's and does not. The stack pointer wraps within page
+ * one, so "below" is measured modulo 256: a frame is live while the
+ * stack pointer is 1 to 127 bytes below its entry value.
+ *
+ * Each instruction's cycles are charged to the routine on top of the
+ * shadow stack (exclusive) and to its position in a tree of call paths.
+ * That tree gives the collapsed-stack output flame graph tools read.
+ * Inclusive cycles are added when a routine's outermost frame ends, so
+ * recursion is not counted twice and frames still on the stack are not
+ * counted yet.
+ * @author pmeade
+ */
+public class CallGraphProfiler extends CpuDecorator
+{
+    public CallGraphProfiler(Cpu6502 cpu, MemoryIO mem) {
+        super(cpu, mem);
+        this.root = new Node(ROOT);
+        this.names = new HashMap<Integer,String>();
+        this.frameSp = new int[64];
+        this.frameStart = new long[64];
+        this.frameNode = new Node[64];
+        frameNode[0] = root;
+    }
+
+    @Override
+    public void doIRQ() {
+        int sp = getSP();
+        super.doIRQ();
+        if(getSP() != sp) {
+            enter(getPC(), sp);
+        }
+    }
+
+    @Override
+    public void doNMI() {
+        int sp = getSP();
+        super.doNMI();
+        enter(getPC(), sp);
+    }
+
+    @Override
+    public int execute() {
+        int opcode = peek(getPC());
+        int sp = getSP();
+        int cycles = super.execute();
+        Node node = frameNode[depth];
+        node.self += cycles;
+        if(node.routine != ROOT) {
+            exclusive[node.routine] += cycles;
+        }
+        unwind(getSP());
+        if((opcode == JSR) || (opcode == BRK)) {
+            enter(getPC(), sp);
+        }
+        return cycles;
+    }
+
+    public long getCalls(int routine) {
+        return calls[routine];
+    }
+
+    /**
+     * @return one line per call path, "root;name;name cycles", with the
+     *         exclusive cycles spent in that path
+     */
+    public String getCollapsedStacks() {
+        StringBuilder out = new StringBuilder();
+        collapse(root, getName(ROOT), out);
+        return out.toString();
+    }
+
+    /**
+     * @return number of frames on the shadow stack
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getExclusiveCycles(int routine) {
+        return exclusive[routine];
+    }
+
+    public long getInclusiveCycles(int routine) {
+        return inclusive[routine];
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        while(depth > 0) {
+            leave();
+        }
+    }
+
+    /**
+     * Label a routine in the collapsed-stack output.
+     * @param routine entry address of the routine
+     * @param name label; must not contain ';' or spaces
+     */
+    public void setName(int routine, String name) {
+        names.put(routine, name);
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void collapse(Node node, String path, StringBuilder out) {
+        if(node.self > 0) {
+            out.append(path).append(' ').append(node.self).append('\n');
+        }
+        if(node.children != null) {
+            for(Node child : node.children.values()) {
+                collapse(child, path + ";" + getName(child.routine), out);
+            }
+        }
+    }
+
+    private void enter(int routine, int sp) {
+        depth++;
+        if(depth == frameSp.length) {
+            frameSp = Arrays.copyOf(frameSp, depth * 2);
+            frameStart = Arrays.copyOf(frameStart, depth * 2);
+            frameNode = Arrays.copyOf(frameNode, depth * 2);
+        }
+        frameSp[depth] = sp;
+        frameStart[depth] = getCycleCount();
+        frameNode[depth] = frameNode[depth - 1].getChild(routine);
+        calls[routine]++;
+        active[routine]++;
+    }
+
+    private String getName(int routine) {
+        String name = names.get(routine);
+        if(name != null) {
+            return name;
+        }
+        return (routine == ROOT) ? "root" : String.format("%04X", routine);
+    }
+
+    /**
+     * End the frame on top of the shadow stack.
+     */
+    private void leave() {
+        int routine = frameNode[depth].routine;
+        if(--active[routine] == 0) {
+            inclusive[routine] += getCycleCount() - frameStart[depth];
+        }
+        frameNode[depth] = null;
+        depth--;
+    }
+
+    /**
+     * End every frame the stack pointer has risen back to.
+     */
+    private void unwind(int sp) {
+        // bytes pushed since the frame was entered, as a signed byte, so
+        // a JSR at $00 or $01 that wraps the stack pointer still counts
+        while((depth > 0) && ((byte) (frameSp[depth] - sp) <= 0)) {
+            leave();
+        }
+    }
+
+    private static final int ROOT = -1;
+    private static final int BRK = 0x00;
+    private static final int JSR = 0x20;
+
+    /**
+     * A call path: a routine and the path that called it.
+     */
+    private static class Node
+    {
+        public Node(int routine) {
+            this.routine = routine;
+        }
+
+        public Node getChild(int routine) {
+            if(children == null) {
+                children = new TreeMap<Integer,Node>();
+            }
+            Node child = children.get(routine);
+            if(child == null) {
+                child = new Node(routine);
+                children.put(routine, child);
+            }
+            return child;
+        }
+
+        private final int routine;
+        private Map<Integer,Node> children;
+        private long self;
+    }
+
+    private final Node root;
+    private final Map<Integer,String> names;
+    private final long[] exclusive = new long[0x10000];
+    private final long[] inclusive = new long[0x10000];
+    private final long[] calls = new long[0x10000];
+    private final int[] active = new int[0x10000];
+    private int[] frameSp;
+    private long[] frameStart;
+    private Node[] frameNode;
+    private int depth;
+}
@@ -0,0 +1,135 @@
+/*
+ * CpuDecorator.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Base for instrumentation that wraps a Cpu6502. Every method passes
+ * straight through to the wrapped CPU; subclasses override execute() (or
+ * the interrupt methods) to observe it. Instrumentation is installed by
+ * running the decorator instead of the CPU, so a CPU without one runs
+ * exactly as before.
+ * @author pmeade
+ */
+public abstract class CpuDecorator implements Cpu6502
+{
+    /**
+     * @param cpu CPU to wrap
+     * @param mem memory for the CPU; it is given to the CPU as well, so
+     *        the decorator always reads the memory the CPU executes
+     */
+    public CpuDecorator(Cpu6502 cpu, MemoryIO mem) {
+        this.cpu = cpu;
+        this.mem = mem;
+        cpu.setMemoryIO(mem);
+    }
+
+    public void doIRQ() {
+        cpu.doIRQ();
+    }
+
+    public void doNMI() {
+        cpu.doNMI();
+    }
+
+    public int execute() {
+        return cpu.execute();
+    }
+
+    public int getAC() {
+        return cpu.getAC();
+    }
+
+    public long getCycleCount() {
+        return cpu.getCycleCount();
+    }
+
+    public int getPC() {
+        return cpu.getPC();
+    }
+
+    public int getSP() {
+        return cpu.getSP();
+    }
+
+    public int getSR() {
+        return cpu.getSR();
+    }
+
+    public int getXR() {
+        return cpu.getXR();
+    }
+
+    public int getYR() {
+        return cpu.getYR();
+    }
+
+    public void reset() {
+        cpu.reset();
+    }
+
+    public void setAC(int i) {
+        cpu.setAC(i);
+    }
+
+    public void setMemoryIO(MemoryIO mem) {
+        this.mem = mem;
+        cpu.setMemoryIO(mem);
+    }
+
+    public void setPC(int i) {
+        cpu.setPC(i);
+    }
+
+    public void setSP(int i) {
+        cpu.setSP(i);
+    }
+
+    public void setSR(int i) {
+        cpu.setSR(i);
+    }
+
+    public void setXR(int i) {
+        cpu.setXR(i);
+    }
+
+    public void setYR(int i) {
+        cpu.setYR(i);
+    }
+
+    // ------------------------------------------------------------------------
+
+    protected MemoryIO getMemoryIO() {
+        return mem;
+    }
+
+    /**
+     * Read memory as the CPU sees it, without executing anything.
+     * @param address address to read
+     * @return byte at the address
+     */
+    protected int peek(int address) {
+        return mem.read(address & 0xffff);
+    }
+
+    private final Cpu6502 cpu;
+    private MemoryIO mem;
+}
@@ -0,0 +1,71 @@
+/*
+ * Disassembler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Formats single instructions, driven by the MNEMONIC, ADDRESS_MODES and
+ * LENGTH tables of Cpu6502.
+ * @author pmeade
+ */
+public class Disassembler
+{
+    /**
+     * Disassemble the instruction at an address, e.g.
+     * "C003  BD FF 02  LDA $02FF,X".
+     * @param mem memory holding the instruction
+     * @param address address of the instruction
+     * @return address, bytes and source text of the instruction
+     */
+    public static String disassemble(MemoryIO mem, int address) {
+        int opcode = mem.read(address & 0xffff);
+        int length = Math.max(1, Cpu6502.LENGTH[opcode]);
+        int lo = (length > 1) ? mem.read((address + 1) & 0xffff) : 0;
+        int hi = (length > 2) ? mem.read((address + 2) & 0xffff) : 0;
+        StringBuilder bytes = new StringBuilder(String.format("%02X", opcode));
+        if(length > 1) { bytes.append(String.format(" %02X", lo)); }
+        if(length > 2) { bytes.append(String.format(" %02X", hi)); }
+        return String.format("%04X  %-8s  %s %s", address & 0xffff, bytes,
+                Cpu6502.MNEMONIC[opcode], getOperand(opcode, address, lo, hi)).trim();
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static String getOperand(int opcode, int address, int lo, int hi) {
+        int word = (hi << 8) | lo;
+        switch(Cpu6502.ADDRESS_MODES[opcode]) {
+            case ABS: return String.format("$%04X", word);
+            case ABX: return String.format("$%04X,X", word);
+            case ABY: return String.format("$%04X,Y", word);
+            case ACC: return "A";
+            case IDX: return String.format("($%02X,X)", lo);
+            case IDY: return String.format("($%02X),Y", lo);
+            case IMM: return String.format("#$%02X", lo);
+            case IND: return String.format("($%04X)", word);
+            case REL: return String.format("$%04X", (address + 2 + (byte) lo) & 0xffff);
+            case ZPG: return String.format("$%02X", lo);
+            case ZPX: return String.format("$%02X,X", lo);
+            case ZPY: return String.format("$%02X,Y", lo);
+            case IMP: return "";
+            default:  return "???";
+        }
+    }
+}
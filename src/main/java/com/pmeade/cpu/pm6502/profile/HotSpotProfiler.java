@@ -0,0 +1,164 @@
+/*
+ * HotSpotProfiler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import java.util.Arrays;
+
+/**
+ * Counts instructions and cycles per guest address, in two 64K-entry
+ * arrays indexed by the PC of each instruction, and reports the hottest
+ * addresses (with disassembly) and address ranges.
+ * @author pmeade
+ */
+public class HotSpotProfiler extends CpuDecorator
+{
+    public HotSpotProfiler(Cpu6502 cpu, MemoryIO mem) {
+        super(cpu, mem);
+    }
+
+    @Override
+    public int execute() {
+        int pc = getPC();
+        int cycles = super.execute();
+        counts[pc]++;
+        totalCycles[pc] += cycles;
+        return cycles;
+    }
+
+    public long getCount(int address) {
+        return counts[address];
+    }
+
+    public long getCycles(int address) {
+        return totalCycles[address];
+    }
+
+    /**
+     * @param n maximum number of addresses
+     * @return the executed addresses with the most cycles, hottest first
+     */
+    public int[] getHottest(int n) {
+        return rank(totalCycles, n);
+    }
+
+    /**
+     * @param rangeSize bytes per range; a power of two
+     * @param n maximum number of ranges
+     * @return start addresses of the ranges with the most cycles, hottest first
+     */
+    public int[] getHottestRanges(int rangeSize, int n) {
+        long[] ranges = getRangeCycles(rangeSize);
+        int[] ranked = rank(ranges, n);
+        for(int i=0; i<ranked.length; i++) {
+            ranked[i] *= rangeSize;
+        }
+        return ranked;
+    }
+
+    /**
+     * @param rangeSize bytes per range; a power of two
+     * @return cycles spent in each range of addresses
+     */
+    public long[] getRangeCycles(int rangeSize) {
+        if((rangeSize <= 0) || (rangeSize > SIZE) || ((rangeSize & (rangeSize - 1)) != 0)) {
+            throw new IllegalArgumentException("Range size must be a power of two up to 0x10000: " + rangeSize);
+        }
+        long[] ranges = new long[SIZE / rangeSize];
+        for(int i=0; i<SIZE; i++) {
+            ranges[i / rangeSize] += totalCycles[i];
+        }
+        return ranges;
+    }
+
+    public long getTotalCycles() {
+        long sum = 0;
+        for(long c : totalCycles) { sum += c; }
+        return sum;
+    }
+
+    /**
+     * @param top number of addresses and ranges to list
+     * @param rangeSize bytes per range; a power of two
+     * @return ranked report of hot ranges and hot addresses
+     */
+    public String report(int top, int rangeSize) {
+        double total = Math.max(1L, getTotalCycles());
+        StringBuilder report = new StringBuilder();
+        report.append("range             cycles      %\n");
+        long[] ranges = getRangeCycles(rangeSize);
+        for(int start : getHottestRanges(rangeSize, top)) {
+            long cycles = ranges[start / rangeSize];
+            report.append(String.format("%04X-%04X %12d %6.2f%n",
+                    start, start + rangeSize - 1, cycles, 100.0 * cycles / total));
+        }
+        report.append("\n");
+        report.append("   count       cycles      %  instruction\n");
+        for(int address : getHottest(top)) {
+            report.append(String.format("%8d %12d %6.2f  %s%n",
+                    counts[address], totalCycles[address],
+                    100.0 * totalCycles[address] / total,
+                    Disassembler.disassemble(getMemoryIO(), address)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Clear every count.
+     */
+    public void resetCounts() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(totalCycles, 0);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return indexes of the n largest non-zero values, largest first
+     */
+    private int[] rank(long[] values, int n) {
+        if(n <= 0) {
+            return new int[0];
+        }
+        int[] best = new int[n];
+        int size = 0;
+        for(int i=0; i<values.length; i++) {
+            if(values[i] == 0) {
+                continue;
+            }
+            if((size == n) && (values[i] <= values[best[size - 1]])) {
+                continue;
+            }
+            // insertion into the short ranked list
+            int j = (size < n) ? size++ : size - 1;
+            while((j > 0) && (values[best[j - 1]] < values[i])) {
+                best[j] = best[j - 1];
+                j--;
+            }
+            best[j] = i;
+        }
+        return Arrays.copyOf(best, size);
+    }
+
+    private static final int SIZE = 0x10000;
+
+    private final long[] counts = new long[SIZE];
+    private final long[] totalCycles = new long[SIZE];
+}
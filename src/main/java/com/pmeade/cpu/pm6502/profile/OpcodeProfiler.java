@@ -0,0 +1,185 @@
+/*
+ * OpcodeProfiler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.AddressMode;
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.Mnemonic;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Counts executions and cycles of each of the 256 opcodes, with a
+ * histogram of the cycles each execution took.
+ *
+ * Extra cycles are split out by comparing the cycles an instruction took
+ * with its base count in CYCLES: for a relative (branch) instruction one
+ * extra cycle means the branch was taken and a second means it crossed a
+ * page; for anything else an extra cycle is a page crossing. All counts
+ * are primitive arrays indexed by opcode, so counting allocates nothing.
+ * @author pmeade
+ */
+public class OpcodeProfiler extends CpuDecorator
+{
+    /**
+     * Histogram buckets; the last one also counts anything longer.
+     */
+    public static final int MAX_CYCLES = 8;
+
+    public OpcodeProfiler(Cpu6502 cpu, MemoryIO mem) {
+        super(cpu, mem);
+    }
+
+    @Override
+    public int execute() {
+        int opcode = peek(getPC());
+        int cycles = super.execute();
+        executions[opcode]++;
+        totalCycles[opcode] += cycles;
+        histogram[(opcode * MAX_CYCLES) + Math.min(cycles, MAX_CYCLES - 1)]++;
+        int extra = cycles - CYCLES[opcode];
+        if(extra > 0) {
+            if(ADDRESS_MODES[opcode] == AddressMode.REL) {
+                branchesTaken[opcode]++;
+                if(extra > 1) {
+                    pageCrossings[opcode]++;
+                }
+            } else {
+                pageCrossings[opcode]++;
+            }
+        }
+        return cycles;
+    }
+
+    public long getBranchesTaken(int opcode) {
+        return branchesTaken[opcode];
+    }
+
+    public long getCycles(int opcode) {
+        return totalCycles[opcode];
+    }
+
+    public long getCycles(AddressMode addressMode) {
+        long sum = 0;
+        for(int i=0; i<0x100; i++) {
+            if(ADDRESS_MODES[i] == addressMode) { sum += totalCycles[i]; }
+        }
+        return sum;
+    }
+
+    public long getCycles(Mnemonic mnemonic) {
+        long sum = 0;
+        for(int i=0; i<0x100; i++) {
+            if(MNEMONIC[i] == mnemonic) { sum += totalCycles[i]; }
+        }
+        return sum;
+    }
+
+    public long getExecutions(int opcode) {
+        return executions[opcode];
+    }
+
+    public long getExecutions(AddressMode addressMode) {
+        long sum = 0;
+        for(int i=0; i<0x100; i++) {
+            if(ADDRESS_MODES[i] == addressMode) { sum += executions[i]; }
+        }
+        return sum;
+    }
+
+    public long getExecutions(Mnemonic mnemonic) {
+        long sum = 0;
+        for(int i=0; i<0x100; i++) {
+            if(MNEMONIC[i] == mnemonic) { sum += executions[i]; }
+        }
+        return sum;
+    }
+
+    /**
+     * @param opcode opcode
+     * @param cycles number of cycles (MAX_CYCLES-1 or more in the last bucket)
+     * @return number of executions of the opcode that took that many cycles
+     */
+    public long getHistogram(int opcode, int cycles) {
+        return histogram[(opcode * MAX_CYCLES) + Math.min(cycles, MAX_CYCLES - 1)];
+    }
+
+    public long getPageCrossings(int opcode) {
+        return pageCrossings[opcode];
+    }
+
+    public long getTotalCycles() {
+        long sum = 0;
+        for(long c : totalCycles) { sum += c; }
+        return sum;
+    }
+
+    public long getTotalExecutions() {
+        long sum = 0;
+        for(long e : executions) { sum += e; }
+        return sum;
+    }
+
+    /**
+     * @return table of the executed opcodes, most cycles first
+     */
+    public String report() {
+        Integer[] opcodes = new Integer[0x100];
+        for(int i=0; i<opcodes.length; i++) {
+            opcodes[i] = i;
+        }
+        Arrays.sort(opcodes, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(totalCycles[b], totalCycles[a]);
+            }
+        });
+        long total = Math.max(1L, getTotalCycles());
+        StringBuilder report = new StringBuilder();
+        report.append("op  mnemonic mode         executions       cycles      %   crossed     taken\n");
+        for(int opcode : opcodes) {
+            if(executions[opcode] == 0) {
+                break;
+            }
+            report.append(String.format("%02X  %-8s %-4s %15d %12d %6.2f %9d %9d%n",
+                    opcode, MNEMONIC[opcode], ADDRESS_MODES[opcode],
+                    executions[opcode], totalCycles[opcode],
+                    100.0 * totalCycles[opcode] / total,
+                    pageCrossings[opcode], branchesTaken[opcode]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Clear every count.
+     */
+    public void resetCounts() {
+        Arrays.fill(executions, 0);
+        Arrays.fill(totalCycles, 0);
+        Arrays.fill(pageCrossings, 0);
+        Arrays.fill(branchesTaken, 0);
+        Arrays.fill(histogram, 0);
+    }
+
+    private final long[] executions = new long[0x100];
+    private final long[] totalCycles = new long[0x100];
+    private final long[] pageCrossings = new long[0x100];
+    private final long[] branchesTaken = new long[0x100];
+    private final long[] histogram = new long[0x100 * MAX_CYCLES];
+}
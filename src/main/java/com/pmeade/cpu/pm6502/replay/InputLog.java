@@ -0,0 +1,183 @@
+/*
+ * InputLog.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact append-only log of device reads. Each entry is the number of
+ * cycles since the previous entry (as a variable length quantity, usually
+ * one byte), the address (two bytes) and the value read (one byte).
+ *
+ * Entries are read back in order with next(), getCycle(), getAddress()
+ * and getValue().
+ * @author pmeade
+ */
+public class InputLog
+{
+    public InputLog() {
+        data = new byte[INITIAL_CAPACITY];
+    }
+
+    public static InputLog load(Path path) throws IOException {
+        InputLog inputLog = new InputLog();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            while(buf.hasRemaining()) {
+                if(channel.read(buf) < 0) {
+                    throw new IOException("Truncated input log: " + path);
+                }
+            }
+            inputLog.data = buf.array();
+            inputLog.length = inputLog.data.length;
+        } finally {
+            channel.close();
+        }
+        // find the last cycle, so that append() can continue the log
+        try {
+            while(inputLog.next()) {
+            }
+        } catch(IllegalStateException e) {
+            throw new IOException("Corrupt input log: " + path, e);
+        }
+        inputLog.lastCycle = inputLog.cycle;
+        inputLog.rewind();
+        return inputLog;
+    }
+
+    /**
+     * @param cycle cycle of the read; not earlier than the last entry's
+     * @param address address read
+     * @param value value read
+     * @throws IllegalArgumentException if the cycle is before the cycle
+     *         of the last entry
+     */
+    public void append(long cycle, int address, int value) {
+        if(cycle < lastCycle) {
+            throw new IllegalArgumentException("Cycle " + cycle + " is before the last entry at " + lastCycle);
+        }
+        ensureCapacity(MAX_ENTRY_SIZE);
+        long delta = cycle - lastCycle;
+        lastCycle = cycle;
+        while(delta >= 0x80) {
+            data[length++] = (byte) ((delta & 0x7f) | 0x80);
+            delta >>>= 7;
+        }
+        data[length++] = (byte) delta;
+        data[length++] = (byte) (address >> 8);
+        data[length++] = (byte) address;
+        data[length++] = (byte) value;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public long getCycle() {
+        return cycle;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Advance to the next entry of the log.
+     * @return true if there was another entry, false at the end of the log
+     * @throws IllegalStateException if the entry is cut short or corrupt
+     */
+    public boolean next() {
+        if(position >= length) {
+            return false;
+        }
+        long delta = 0;
+        int shift = 0;
+        int b;
+        do {
+            if((position >= length) || (shift > 63)) {
+                throw new IllegalStateException("Bad cycle delta at offset " + position);
+            }
+            b = data[position++];
+            delta |= ((long) (b & 0x7f)) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        if(position + 3 > length) {
+            throw new IllegalStateException("Truncated entry at offset " + position);
+        }
+        cycle += delta;
+        address = ((data[position] & 0xff) << 8) | (data[position+1] & 0xff);
+        value = data[position+2] & 0xff;
+        position += 3;
+        return true;
+    }
+
+    /**
+     * Start reading the log again from the first entry.
+     */
+    public void rewind() {
+        position = 0;
+        cycle = 0;
+    }
+
+    public void save(Path path) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            while(buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void ensureCapacity(int needed) {
+        if(length + needed > data.length) {
+            int capacity = Math.max(data.length * 2, length + needed);
+            data = Arrays.copyOf(data, Math.max(INITIAL_CAPACITY, capacity));
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int MAX_ENTRY_SIZE = 10 + 3;
+
+    private byte[] data;
+    private int length;
+    private long lastCycle;
+
+    private int position;
+    private long cycle;
+    private int address;
+    private int value;
+}
@@ -0,0 +1,55 @@
+/*
+ * RecordingMemoryIO.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.replay;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.IoMap;
+
+/**
+ * Logs every read of a device (non-RAM) address, so the session can be
+ * re-run later with a ReplayMemoryIO and no devices attached.
+ * @author pmeade
+ */
+public class RecordingMemoryIO implements MemoryIO
+{
+    public RecordingMemoryIO(MemoryIO mem, IoMap ioMap, Cpu6502 cpu, InputLog inputLog) {
+        this.mem = mem;
+        this.ioMap = ioMap;
+        this.cpu = cpu;
+        this.inputLog = inputLog;
+    }
+
+    public int read(int address) {
+        int data = mem.read(address);
+        if(ioMap.isIO(address)) {
+            inputLog.append(cpu.getCycleCount(), address, data);
+        }
+        return data;
+    }
+
+    public void write(int address, int data) {
+        mem.write(address, data);
+    }
+
+    private final MemoryIO mem;
+    private final IoMap ioMap;
+    private final Cpu6502 cpu;
+    private final InputLog inputLog;
+}
@@ -0,0 +1,66 @@
+/*
+ * ReplayMemoryIO.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.replay;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.IoMap;
+
+/**
+ * Feeds recorded device reads back to the CPU. RAM addresses go to the
+ * provided memory; device addresses are answered from the InputLog and
+ * writes to them are discarded. A read that does not match the next log
+ * entry (address or cycle) means the run has diverged from the recording.
+ * @author pmeade
+ */
+public class ReplayMemoryIO implements MemoryIO
+{
+    public ReplayMemoryIO(MemoryIO ram, IoMap ioMap, Cpu6502 cpu, InputLog inputLog) {
+        this.ram = ram;
+        this.ioMap = ioMap;
+        this.cpu = cpu;
+        this.inputLog = inputLog;
+    }
+
+    public int read(int address) {
+        if(ioMap.isIO(address)) {
+            if(!inputLog.next()) {
+                throw new IllegalStateException("Input log exhausted at cycle " + cpu.getCycleCount());
+            }
+            if((inputLog.getAddress() != address) || (inputLog.getCycle() != cpu.getCycleCount())) {
+                throw new IllegalStateException("Replay diverged at cycle " + cpu.getCycleCount()
+                        + ": read 0x" + Integer.toHexString(address) + ", recorded 0x"
+                        + Integer.toHexString(inputLog.getAddress()) + " at cycle " + inputLog.getCycle());
+            }
+            return inputLog.getValue();
+        }
+        return ram.read(address);
+    }
+
+    public void write(int address, int data) {
+        if(!ioMap.isIO(address)) {
+            ram.write(address, data);
+        }
+    }
+
+    private final MemoryIO ram;
+    private final IoMap ioMap;
+    private final Cpu6502 cpu;
+    private final InputLog inputLog;
+}
@@ -0,0 +1,151 @@
+/*
+ * GreenScheduler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Time-slices many CPUs over a few carrier threads.
+ *
+ * Runnable machines wait in a single FIFO run queue. A carrier takes the
+ * machine at the head, runs it for one quantum of cycles and puts it back
+ * at the tail, so every runnable machine gets the same share of cycles.
+ * A machine that its IdleDetector reports as idle-waiting is parked at
+ * the end of its quantum and costs nothing until wake() is called on it.
+ * A machine that reaches its cycle limit is throttled until the limit is
+ * raised, and one that throws (an illegal opcode, say) is halted.
+ *
+ * Carriers are created with the given ThreadFactory, so they may be
+ * platform or virtual threads.
+ * @author pmeade
+ */
+public class GreenScheduler
+{
+    public GreenScheduler(int carriers, long quantum) {
+        this(carriers, quantum, Executors.defaultThreadFactory());
+    }
+
+    public GreenScheduler(int carriers, long quantum, ThreadFactory factory) {
+        if(carriers <= 0) {
+            throw new IllegalArgumentException("Carrier count must be positive: " + carriers);
+        }
+        if(quantum <= 0) {
+            throw new IllegalArgumentException("Quantum must be positive: " + quantum);
+        }
+        this.quantum = quantum;
+        this.runQueue = new LinkedBlockingQueue<Machine>();
+        this.machines = Collections.synchronizedList(new ArrayList<Machine>());
+        this.threads = new Thread[carriers];
+        Runnable carrier = new Runnable() {
+            public void run() {
+                carry();
+            }
+        };
+        for(int i=0; i<carriers; i++) {
+            threads[i] = factory.newThread(carrier);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public Machine add(Cpu6502 cpu) {
+        return add(cpu, IdleDetector.SELF_LOOP);
+    }
+
+    public Machine add(Cpu6502 cpu, IdleDetector idle) {
+        return add(cpu, idle, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param cpu CPU to host; it must not be run by anything else
+     * @param idle detector for idle-waiting, or null to never park
+     * @param cycleLimit total cycles the machine may use
+     * @return handle to the hosted machine
+     */
+    public Machine add(Cpu6502 cpu, IdleDetector idle, long cycleLimit) {
+        Machine machine = new Machine(this, cpu, idle, cycleLimit);
+        machines.add(machine);
+        enqueue(machine);
+        return machine;
+    }
+
+    public List<Machine> getMachines() {
+        synchronized(machines) {
+            return new ArrayList<Machine>(machines);
+        }
+    }
+
+    public long getQuantum() {
+        return quantum;
+    }
+
+    /**
+     * @return total cycles run by all machines
+     */
+    public long getTotalCycles() {
+        long total = 0;
+        for(Machine machine : getMachines()) {
+            total += machine.getCyclesUsed();
+        }
+        return total;
+    }
+
+    /**
+     * Stop the carriers after their current quanta and wait for them.
+     */
+    public void shutdown() throws InterruptedException {
+        for(Thread thread : threads) {
+            thread.interrupt();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    void enqueue(Machine machine) {
+        runQueue.add(machine);
+    }
+
+    private void carry() {
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                Machine machine = runQueue.take();
+                if(machine.runQuantum(quantum)) {
+                    runQueue.add(machine);
+                }
+            }
+        } catch(InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private final long quantum;
+    private final BlockingQueue<Machine> runQueue;
+    private final List<Machine> machines;
+    private final Thread[] threads;
+}
@@ -0,0 +1,46 @@
+/*
+ * IdleDetector.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+
+/**
+ * Decides when a machine is idle-waiting, so the scheduler can park it
+ * instead of spending cycles on it. Checked after every instruction.
+ * @author pmeade
+ */
+public interface IdleDetector
+{
+    /**
+     * Idle when an instruction leaves the PC where it was, as a JMP or a
+     * taken branch to itself does.
+     */
+    public static final IdleDetector SELF_LOOP = new IdleDetector() {
+        public boolean isIdle(Cpu6502 cpu, int previousPC) {
+            return cpu.getPC() == previousPC;
+        }
+    };
+
+    /**
+     * @param cpu CPU that just executed an instruction
+     * @param previousPC address of the instruction it executed
+     * @return true, if the machine is waiting for something external
+     */
+    public boolean isIdle(Cpu6502 cpu, int previousPC);
+}
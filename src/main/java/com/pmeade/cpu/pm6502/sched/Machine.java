@@ -0,0 +1,145 @@
+/*
+ * Machine.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A CPU hosted by a GreenScheduler, with its scheduling state and cycle
+ * accounting. Methods on a Machine may be called from any thread; the
+ * CPU itself belongs to whichever carrier is running it, so changes to
+ * CPU state from outside should go through a CommandQueue.
+ * @author pmeade
+ */
+public class Machine
+{
+    public enum State { RUNNABLE, PARKED, THROTTLED, HALTED }
+
+    public Cpu6502 getCpu() {
+        return cpu;
+    }
+
+    public long getCycleLimit() {
+        return cycleLimit;
+    }
+
+    /**
+     * @return total cycles this machine has run, for billing
+     */
+    public long getCyclesUsed() {
+        return cyclesUsed;
+    }
+
+    /**
+     * @return exception that halted the machine, or null
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    /**
+     * Limit the total cycles this machine may use. A machine that reaches
+     * its limit is THROTTLED until the limit is raised.
+     * @param cycleLimit cycle limit, or Long.MAX_VALUE for none
+     */
+    public void setCycleLimit(long cycleLimit) {
+        this.cycleLimit = cycleLimit;
+        if((cyclesUsed < cycleLimit) && state.compareAndSet(THROTTLED, RUNNABLE)) {
+            scheduler.enqueue(this);
+        }
+    }
+
+    /**
+     * Make a parked machine runnable again; typically called after
+     * queueing an interrupt for it. A wake-up that arrives while the
+     * machine is still running keeps it from parking at the end of its
+     * quantum.
+     */
+    public void wake() {
+        wakeRequested.set(true);
+        if(state.compareAndSet(PARKED, RUNNABLE)) {
+            wakeRequested.set(false);
+            scheduler.enqueue(this);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    Machine(GreenScheduler scheduler, Cpu6502 cpu, IdleDetector idle, long cycleLimit) {
+        this.scheduler = scheduler;
+        this.cpu = cpu;
+        this.idle = idle;
+        this.cycleLimit = cycleLimit;
+        this.state = new AtomicInteger(RUNNABLE);
+        this.wakeRequested = new AtomicBoolean();
+    }
+
+    /**
+     * Run one quantum on the calling carrier thread.
+     * @return true, if the machine should go back on the run queue
+     */
+    boolean runQuantum(long quantum) {
+        long budget = Math.min(quantum, cycleLimit - cyclesUsed);
+        long ran = 0;
+        boolean idling = false;
+        try {
+            while((ran < budget) && !idling) {
+                int pc = cpu.getPC();
+                ran += cpu.execute();
+                idling = (idle != null) && idle.isIdle(cpu, pc);
+            }
+        } catch(RuntimeException e) {
+            failure = e;
+            state.set(HALTED);
+            return false;
+        } finally {
+            cyclesUsed += ran;
+        }
+        if(cyclesUsed >= cycleLimit) {
+            state.set(THROTTLED);
+            // the limit may have been raised while we were running
+            return (cyclesUsed < cycleLimit) && state.compareAndSet(THROTTLED, RUNNABLE);
+        }
+        if(idling) {
+            state.set(PARKED);
+            return wakeRequested.getAndSet(false) && state.compareAndSet(PARKED, RUNNABLE);
+        }
+        return true;
+    }
+
+    private static final int RUNNABLE = State.RUNNABLE.ordinal();
+    private static final int PARKED = State.PARKED.ordinal();
+    private static final int THROTTLED = State.THROTTLED.ordinal();
+    private static final int HALTED = State.HALTED.ordinal();
+
+    private final GreenScheduler scheduler;
+    private final Cpu6502 cpu;
+    private final IdleDetector idle;
+    private final AtomicInteger state;
+    private final AtomicBoolean wakeRequested;
+    private volatile long cycleLimit;
+    private volatile long cyclesUsed;
+    private volatile RuntimeException failure;
+}
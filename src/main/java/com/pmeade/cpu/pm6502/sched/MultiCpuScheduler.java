@@ -0,0 +1,165 @@
+/*
+ * MultiCpuScheduler.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import java.util.Arrays;
+
+/**
+ * Runs several CPUs that share a bus, interleaved deterministically
+ * against a 64-bit master clock.
+ *
+ * Time advances in slices of a configurable quantum of master clock
+ * ticks. In each slice every core, in the order it was added, runs until
+ * its own time reaches the end of the slice. A core may run slower than
+ * the master clock by a whole divider (a core with divider 2 advances two
+ * master ticks per cycle).
+ *
+ * Interrupts raised with raiseNMI() or setIRQ() are taken by the target
+ * core at its next instruction boundary. Raising one from inside a slice
+ * (typically from a device in the shared MemoryIO) ends that slice as
+ * soon as the current instruction finishes, so cores later in order see
+ * it at the same master time; cores earlier in order see it on their next
+ * slice. The interleaving depends only on the quantum and the order of
+ * the cores, so runs are reproducible; larger quanta run faster, smaller
+ * quanta bound the skew between cores more tightly.
+ *
+ * A scheduler is driven by one thread.
+ * @author pmeade
+ */
+public class MultiCpuScheduler
+{
+    public MultiCpuScheduler(long quantum) {
+        setQuantum(quantum);
+        cpus = new Cpu6502[0];
+        dividers = new int[0];
+        times = new long[0];
+        nmi = new boolean[0];
+        irq = new boolean[0];
+    }
+
+    public int addCpu(Cpu6502 cpu) {
+        return addCpu(cpu, 1);
+    }
+
+    /**
+     * @param cpu CPU to add
+     * @param divider master clock ticks per cycle of this CPU
+     * @return index of the core
+     */
+    public int addCpu(Cpu6502 cpu, int divider) {
+        if(divider <= 0) {
+            throw new IllegalArgumentException("Clock divider must be positive: " + divider);
+        }
+        int n = cpus.length;
+        cpus = Arrays.copyOf(cpus, n + 1);
+        dividers = Arrays.copyOf(dividers, n + 1);
+        times = Arrays.copyOf(times, n + 1);
+        nmi = Arrays.copyOf(nmi, n + 1);
+        irq = Arrays.copyOf(irq, n + 1);
+        cpus[n] = cpu;
+        dividers[n] = divider;
+        times[n] = masterClock;
+        return n;
+    }
+
+    public long getMasterClock() {
+        return masterClock;
+    }
+
+    /**
+     * @param core index of the core
+     * @return master clock time the core has run up to
+     */
+    public long getTime(int core) {
+        return times[core];
+    }
+
+    public void raiseNMI(int core) {
+        nmi[core] = true;
+        sliceEnd = Math.min(sliceEnd, currentTime());
+    }
+
+    /**
+     * Run every core for the given number of master clock ticks.
+     * @param ticks number of master clock ticks
+     */
+    public void run(long ticks) {
+        long end = masterClock + ticks;
+        while(masterClock < end) {
+            sliceEnd = Math.min(masterClock + quantum, end);
+            for(current=0; current<cpus.length; current++) {
+                runCore(current);
+            }
+            current = -1;
+            masterClock = sliceEnd;
+        }
+    }
+
+    /**
+     * Set the level of a core's IRQ line. The core takes the interrupt at
+     * an instruction boundary while the line is asserted and its interrupt
+     * disable flag is clear.
+     * @param core index of the core
+     * @param asserted true to assert the line, false to release it
+     */
+    public void setIRQ(int core, boolean asserted) {
+        irq[core] = asserted;
+        if(asserted) {
+            sliceEnd = Math.min(sliceEnd, currentTime());
+        }
+    }
+
+    public void setQuantum(long quantum) {
+        if(quantum <= 0) {
+            throw new IllegalArgumentException("Quantum must be positive: " + quantum);
+        }
+        this.quantum = quantum;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private long currentTime() {
+        return (current < 0) ? Long.MAX_VALUE : Math.max(times[current], masterClock);
+    }
+
+    private void runCore(int core) {
+        Cpu6502 cpu = cpus[core];
+        int divider = dividers[core];
+        while(times[core] < sliceEnd) {
+            if(nmi[core]) {
+                nmi[core] = false;
+                cpu.doNMI();
+            } else if(irq[core] && ((cpu.getSR() & Cpu6502.FLAG_INTERRUPT) == 0)) {
+                cpu.doIRQ();
+            }
+            times[core] += (long) cpu.execute() * divider;
+        }
+    }
+
+    private Cpu6502[] cpus;
+    private int[] dividers;
+    private long[] times;
+    private boolean[] nmi;
+    private boolean[] irq;
+    private long quantum;
+    private long masterClock;
+    private long sliceEnd;
+    private int current = -1;
+}
@@ -0,0 +1,190 @@
+/*
+ * Pacer.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a CPU in real time at a target clock rate, such as 1.023 MHz.
+ *
+ * The CPU runs in batches. After each batch the emulated time (cycles at
+ * the clock rate) is compared with System.nanoTime(); if the CPU is ahead
+ * the thread parks for most of the difference and spins for the rest.
+ * The batch length adapts to how precisely the host wakes up: if the
+ * wake-up error is large compared to the batch, batches get longer (fewer,
+ * coarser waits); if it is small, they get shorter (less jitter). If the
+ * host cannot keep up and falls more than MAX_LAG behind, the pacer
+ * resynchronizes instead of bursting to catch up.
+ *
+ * Drift is measured after each wait as wall time minus emulated time;
+ * jitter is its standard deviation.
+ * @author pmeade
+ */
+public class Pacer
+{
+    public static final double APPLE_II_HZ = 1023000.0;
+    public static final double NES_HZ = 1789773.0;
+
+    public static final long MIN_PERIOD = 100000L;
+    public static final long MAX_PERIOD = 20000000L;
+    public static final long MAX_LAG = 100000000L;
+
+    public Pacer(Cpu6502 cpu, double clockHz) {
+        if(clockHz <= 0.0) {
+            throw new IllegalArgumentException("Clock rate must be positive: " + clockHz);
+        }
+        this.cpu = cpu;
+        this.nanosPerCycle = 1.0e9 / clockHz;
+        this.period = 1000000L;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return host nanoseconds spent executing instructions
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getMaxDriftNanos() {
+        return maxDrift;
+    }
+
+    public double getMeanDriftNanos() {
+        return (batches == 0) ? 0.0 : driftSum / batches;
+    }
+
+    public double getJitterNanos() {
+        if(batches == 0) { return 0.0; }
+        double mean = driftSum / batches;
+        return Math.sqrt(Math.max(0.0, (driftSquares / batches) - (mean * mean)));
+    }
+
+    /**
+     * @return current batch length, in nanoseconds of emulated time
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * @return host nanoseconds spent spinning while waiting (parked time
+     *         is not counted; the thread uses no CPU then)
+     */
+    public long getSpinNanos() {
+        return spinNanos;
+    }
+
+    /**
+     * Run the given number of cycles in real time, or until stop().
+     * @param cycles number of cycles to run
+     */
+    public void run(long cycles) {
+        stopped = false;
+        long start = System.nanoTime();
+        // the time emulated cycle zero maps to; a resync moves it forward
+        long origin = start;
+        long done = 0;
+        long carry = 0;
+        while((done < cycles) && !stopped) {
+            long batch = Math.min(cycles - done, Math.max(1L, (long) (period / nanosPerCycle)));
+            long t0 = System.nanoTime();
+            long ran = carry;
+            while(ran < batch) {
+                ran += cpu.execute();
+            }
+            carry = ran - batch;
+            done += batch;
+            long t1 = System.nanoTime();
+            busyNanos += t1 - t0;
+
+            long target = origin + (long) (done * nanosPerCycle);
+            long now = t1;
+            if(now - target > MAX_LAG) {
+                // too far behind to catch up; rebase emulated time on now
+                origin += (now - target);
+                target = now;
+                resyncs++;
+            }
+            long ahead = target - now;
+            if(ahead > SPIN_NANOS) {
+                LockSupport.parkNanos(ahead - SPIN_NANOS);
+            }
+            long spinStart = System.nanoTime();
+            now = spinStart;
+            while(now < target) {
+                Thread.yield();
+                now = System.nanoTime();
+            }
+            spinNanos += now - spinStart;
+
+            double drift = now - target;
+            driftSum += drift;
+            driftSquares += drift * drift;
+            maxDrift = Math.max(maxDrift, Math.abs(drift));
+            batches++;
+            adapt(ahead, spinStart - target);
+        }
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void adapt(long ahead, long wakeError) {
+        if(ahead <= 0) {
+            return;
+        }
+        if((wakeError > period / 4) && (period < MAX_PERIOD)) {
+            period = Math.min(MAX_PERIOD, period * 2);
+        } else if((wakeError < period / 16) && (period > MIN_PERIOD)) {
+            period = Math.max(MIN_PERIOD, period / 2);
+        }
+    }
+
+    private static final long SPIN_NANOS = 50000L;
+
+    private final Cpu6502 cpu;
+    private final double nanosPerCycle;
+    private volatile boolean stopped;
+    private long period;
+    private long batches;
+    private long busyNanos;
+    private long spinNanos;
+    private long elapsedNanos;
+    private long resyncs;
+    private double driftSum;
+    private double driftSquares;
+    private double maxDrift;
+}
@@ -0,0 +1,190 @@
+/*
+ * Checkpointer.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checkpoints a running machine to disk without pausing it.
+ *
+ * At an instruction boundary the machine is captured as a copy-on-write
+ * Snapshot, which costs a page table copy. A background thread writes the
+ * snapshot to a temporary file, forces it to disk, and atomically renames
+ * it over the checkpoint, so only complete checkpoints are ever visible,
+ * even after a crash. If the previous checkpoint is still being written
+ * when the next one is due, the new one is skipped rather than stalling
+ * the CPU.
+ *
+ * Run the machine through execute() so checkpoints are taken on schedule.
+ * @author pmeade
+ */
+public class Checkpointer
+{
+    public Checkpointer(PM6502 cpu, Ram ram, Path path, long interval) {
+        if(interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        this.cpu = cpu;
+        this.ram = ram;
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.interval = interval;
+        this.nextCheckpoint = cpu.getCycleCount() + interval;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pm6502-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start a checkpoint of the machine now, unless one is still being
+     * written.
+     * @return true if a checkpoint was started, false if it was skipped
+     */
+    public boolean checkpoint() {
+        checkFailure();
+        nextCheckpoint = cpu.getCycleCount() + interval;
+        if(writing) {
+            skipped++;
+            return false;
+        }
+        final Snapshot snapshot = Snapshot.capture(cpu, ram);
+        writing = true;
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    snapshot.save(tempPath);
+                    // the data must be on disk before the rename is, or a
+                    // crash can leave a partial file under the final name
+                    force(tempPath);
+                    Files.move(tempPath, path,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    forceDirectory(path.toAbsolutePath().getParent());
+                    lastCheckpointCycle = snapshot.getCycleCount();
+                } catch(IOException e) {
+                    failure = e;
+                } finally {
+                    writing = false;
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Wait for any checkpoint being written and stop the writer thread.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Execute one instruction, starting a checkpoint if one is due.
+     * @return number of cycles the instruction took
+     */
+    public int execute() {
+        int cycles = cpu.execute();
+        if(cpu.getCycleCount() >= nextCheckpoint) {
+            checkpoint();
+        }
+        return cycles;
+    }
+
+    /**
+     * @return cycle count of the machine in the newest complete checkpoint,
+     *         or -1 if no checkpoint has been completed
+     */
+    public long getLastCheckpointCycle() {
+        return lastCheckpointCycle;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void checkFailure() {
+        IOException e = failure;
+        if(e != null) {
+            failure = null;
+            throw new RuntimeException("Checkpoint to " + path + " failed", e);
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Make a rename in the directory durable. Not every platform can open
+     * a directory; where it cannot, the rename is left to the file system.
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch(IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private final PM6502 cpu;
+    private final Ram ram;
+    private final Path path;
+    private final Path tempPath;
+    private final long interval;
+    private final ExecutorService executor;
+    private long nextCheckpoint;
+    private long skipped;
+    private volatile boolean writing;
+    private volatile long lastCheckpointCycle = -1;
+    private volatile IOException failure;
+}
@@ -0,0 +1,123 @@
+/*
+ * HashingMemoryIO.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.IoMap;
+
+/**
+ * Maintains a 64-bit Zobrist-style hash of memory as it is written.
+ *
+ * Every (address, value) pair has a pseudo-random 64-bit key; the memory
+ * hash is the XOR of the keys of the current contents. A write XORs out
+ * the key of the old value and XORs in the key of the new one, so the
+ * hash is always current. The six CPU registers are folded in the same
+ * way by stateHash(), which is O(1) at any instruction boundary.
+ *
+ * Device addresses marked in the IoMap are not hashed (and never read
+ * back to find an old value). Install this MemoryIO only when hashing is
+ * wanted; the CPU core itself is unchanged, so the cost is zero otherwise.
+ * If memory is changed behind its back (for example by restoring a
+ * snapshot into the underlying Ram), call rehash().
+ * @author pmeade
+ */
+public class HashingMemoryIO implements MemoryIO
+{
+    public HashingMemoryIO(MemoryIO mem) {
+        this(mem, new IoMap());
+    }
+
+    public HashingMemoryIO(MemoryIO mem, IoMap ioMap) {
+        this.mem = mem;
+        this.ioMap = ioMap;
+        rehash();
+    }
+
+    public long getMemoryHash() {
+        return hash;
+    }
+
+    public int read(int address) {
+        return mem.read(address);
+    }
+
+    /**
+     * Recompute the memory hash from scratch.
+     */
+    public void rehash() {
+        long h = 0;
+        for(int address=0; address<0x10000; address++) {
+            if(!ioMap.isIO(address)) {
+                h ^= key(address, mem.read(address));
+            }
+        }
+        hash = h;
+    }
+
+    /**
+     * @param cpu CPU using this memory
+     * @return hash of the memory and the CPU registers
+     */
+    public long stateHash(Cpu6502 cpu) {
+        return hash
+            ^ key(REG_AC, cpu.getAC())
+            ^ key(REG_XR, cpu.getXR())
+            ^ key(REG_YR, cpu.getYR())
+            ^ key(REG_SP, cpu.getSP())
+            ^ key(REG_SR, cpu.getSR())
+            ^ key(REG_PC, cpu.getPC());
+    }
+
+    public void write(int address, int data) {
+        if(!ioMap.isIO(address)) {
+            hash ^= key(address, mem.read(address));
+            mem.write(address, data);
+            // what the memory holds now, which for ROM or masked bits
+            // is not necessarily the value written
+            hash ^= key(address, mem.read(address));
+        } else {
+            mem.write(address, data);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Zobrist key of a value at a location, computed by a splitmix64
+     * finalizer rather than looked up, since a table would need 16M entries.
+     */
+    private static long key(int location, int value) {
+        long z = ((((long) location) << 16) | value) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final int REG_AC = 0x10000;
+    private static final int REG_XR = 0x10001;
+    private static final int REG_YR = 0x10002;
+    private static final int REG_SP = 0x10003;
+    private static final int REG_SR = 0x10004;
+    private static final int REG_PC = 0x10005;
+
+    private final MemoryIO mem;
+    private final IoMap ioMap;
+    private long hash;
+}
@@ -0,0 +1,31 @@
+/*
+ * InputPort.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+
+/**
+ * Presents a frame's input (such as joypad bits) to the guest, typically
+ * by writing it where the guest polls for it.
+ * @author pmeade
+ */
+public interface InputPort
+{
+    public void setInput(MemoryIO mem, int input);
+}
@@ -0,0 +1,188 @@
+/*
+ * RewindBuffer.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Ring of periodic snapshots for stepping a machine backwards in time.
+ *
+ * Each snapshot keeps only the pages that changed since the snapshot
+ * before it; because Ram is copy-on-write, a changed page is simply one
+ * whose backing array is no longer the same object. The oldest snapshot
+ * always holds every page. When the retained pages exceed the memory
+ * budget, the oldest snapshot is merged into the next one and dropped.
+ *
+ * Run the machine through execute() so snapshots are taken on schedule.
+ * @author pmeade
+ */
+public class RewindBuffer
+{
+    public RewindBuffer(PM6502 cpu, Ram ram, long interval, long memoryBudget) {
+        if(interval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive: " + interval);
+        }
+        this.cpu = cpu;
+        this.ram = ram;
+        this.interval = interval;
+        this.memoryBudget = memoryBudget;
+        this.entries = new ArrayDeque<Entry>();
+        this.newest = new byte[Ram.PAGES][];
+        capture();
+    }
+
+    /**
+     * Take a snapshot of the machine now.
+     */
+    public void capture() {
+        Ram frozen = ram.fork();
+        byte[][] delta = new byte[Ram.PAGES][];
+        int pages = 0;
+        for(int i=0; i<Ram.PAGES; i++) {
+            byte[] page = frozen.getPage(i);
+            if(page != newest[i]) {
+                delta[i] = page;
+                newest[i] = page;
+                pages++;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(PM6502.STATE_SIZE);
+        cpu.saveState(buf);
+        Entry entry = new Entry(cpu.getCycleCount(), buf.array(), delta, pages);
+        entries.addLast(entry);
+        memoryUsed += entry.getSize();
+        nextCapture = cpu.getCycleCount() + interval;
+        while((memoryUsed > memoryBudget) && (entries.size() > 1)) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Execute one instruction, taking a snapshot if one is due.
+     * @return number of cycles the instruction took
+     */
+    public int execute() {
+        int cycles = cpu.execute();
+        if(cpu.getCycleCount() >= nextCapture) {
+            capture();
+        }
+        return cycles;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getOldestCycle() {
+        return entries.getFirst().cycle;
+    }
+
+    /**
+     * Step the machine back in time. The nearest snapshot at or before the
+     * target is restored and the machine re-executes forward until it
+     * reaches the first instruction boundary at or after the target cycle.
+     * Snapshots newer than the restored one are discarded.
+     * @param cycles number of cycles to go back
+     */
+    public void rewind(long cycles) {
+        long target = cpu.getCycleCount() - cycles;
+        if((cycles < 0) || (target < getOldestCycle())) {
+            throw new IllegalArgumentException("Cannot rewind " + cycles + " cycles; oldest snapshot is at cycle " + getOldestCycle());
+        }
+        while(entries.getLast().cycle > target) {
+            Entry entry = entries.removeLast();
+            memoryUsed -= entry.getSize();
+        }
+        restore(entries.getLast());
+        while(cpu.getCycleCount() < target) {
+            execute();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void evictOldest() {
+        Entry oldest = entries.removeFirst();
+        Entry next = entries.getFirst();
+        memoryUsed -= oldest.getSize();
+        memoryUsed -= next.getSize();
+        for(int i=0; i<Ram.PAGES; i++) {
+            if(next.delta[i] == null) {
+                next.delta[i] = oldest.delta[i];
+                next.pages++;
+            }
+        }
+        memoryUsed += next.getSize();
+    }
+
+    private void restore(Entry target) {
+        byte[][] table = new byte[Ram.PAGES][];
+        int missing = Ram.PAGES;
+        Iterator<Entry> it = entries.descendingIterator();
+        while(missing > 0) {
+            byte[][] delta = it.next().delta;
+            for(int i=0; i<Ram.PAGES; i++) {
+                if((table[i] == null) && (delta[i] != null)) {
+                    table[i] = delta[i];
+                    missing--;
+                }
+            }
+        }
+        System.arraycopy(table, 0, newest, 0, Ram.PAGES);
+        ram.load(new Ram(table));
+        cpu.loadState(ByteBuffer.wrap(target.cpuState));
+        nextCapture = cpu.getCycleCount() + interval;
+    }
+
+    private static class Entry
+    {
+        public Entry(long cycle, byte[] cpuState, byte[][] delta, int pages) {
+            this.cycle = cycle;
+            this.cpuState = cpuState;
+            this.delta = delta;
+            this.pages = pages;
+        }
+
+        public long getSize() {
+            return cpuState.length + ((long) pages * Ram.PAGE_SIZE);
+        }
+
+        private final long cycle;
+        private final byte[] cpuState;
+        private final byte[][] delta;
+        private int pages;
+    }
+
+    private final PM6502 cpu;
+    private final Ram ram;
+    private final long interval;
+    private final long memoryBudget;
+    private final ArrayDeque<Entry> entries;
+    private final byte[][] newest;
+    private long memoryUsed;
+    private long nextCapture;
+}
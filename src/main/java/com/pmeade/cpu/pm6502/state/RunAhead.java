@@ -0,0 +1,136 @@
+/*
+ * RunAhead.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.ArrayDeque;
+
+/**
+ * Frame-based run loop that hides input latency by running ahead.
+ *
+ * After each real frame the machine is left N frames in the future,
+ * having run those frames with the latest input repeated; that is the
+ * state to present. A snapshot is kept after every speculative frame.
+ * When the next real input matches the prediction, the first of those
+ * snapshots simply becomes the confirmed state and the machine runs one
+ * more frame, so a correct prediction costs one frame of emulation. When
+ * it differs, the machine rolls back to the confirmed state and replays
+ * the real frame plus N new speculative frames.
+ *
+ * Snapshots are copy-on-write forks of the Ram, so taking one costs a
+ * page table copy and restoring one costs another; device state outside
+ * the Ram is not rolled back.
+ * @author pmeade
+ */
+public class RunAhead
+{
+    public RunAhead(PM6502 cpu, Ram ram, InputPort port, long cyclesPerFrame, int frames) {
+        if(cyclesPerFrame <= 0) {
+            throw new IllegalArgumentException("Cycles per frame must be positive: " + cyclesPerFrame);
+        }
+        if(frames < 0) {
+            throw new IllegalArgumentException("Run-ahead frames must not be negative: " + frames);
+        }
+        this.cpu = cpu;
+        this.ram = ram;
+        this.port = port;
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.frames = frames;
+        this.base = cpu.getCycleCount();
+        this.confirmed = Snapshot.capture(cpu, ram);
+        this.speculative = new ArrayDeque<Snapshot>();
+    }
+
+    /**
+     * Run one real frame with the given input. Afterwards the CPU and
+     * memory hold the run-ahead state.
+     * @param input input for the frame
+     */
+    public void frame(int input) {
+        frameNumber++;
+        if(!speculative.isEmpty() && (input == prediction)) {
+            confirmed = speculative.removeFirst();
+            runFrame(prediction, frameNumber + frames);
+            speculative.addLast(Snapshot.capture(cpu, ram));
+            return;
+        }
+        if(!speculative.isEmpty()) {
+            rollbacks++;
+            speculative.clear();
+        }
+        confirmed.restore(cpu, ram);
+        runFrame(input, frameNumber);
+        confirmed = Snapshot.capture(cpu, ram);
+        prediction = input;
+        for(int i=1; i<=frames; i++) {
+            runFrame(prediction, frameNumber + i);
+            speculative.addLast(Snapshot.capture(cpu, ram));
+        }
+    }
+
+    /**
+     * @return state after the last real frame
+     */
+    public Snapshot getConfirmed() {
+        return confirmed;
+    }
+
+    /**
+     * @return number of frames actually emulated, real and speculative
+     */
+    public long getFramesEmulated() {
+        return framesEmulated;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Run the machine to the end of the given frame.
+     */
+    private void runFrame(int input, long number) {
+        port.setInput(ram, input);
+        long end = base + (number * cyclesPerFrame);
+        while(cpu.getCycleCount() < end) {
+            cpu.execute();
+        }
+        framesEmulated++;
+    }
+
+    private final PM6502 cpu;
+    private final Ram ram;
+    private final InputPort port;
+    private final long cyclesPerFrame;
+    private final int frames;
+    private final long base;
+    private final ArrayDeque<Snapshot> speculative;
+    private Snapshot confirmed;
+    private long frameNumber;
+    private int prediction;
+    private long rollbacks;
+    private long framesEmulated;
+}
@@ -0,0 +1,155 @@
+/*
+ * SaveState.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.Stateful;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Versioned binary save state of a CPU and its memory (including any
+ * device state the memory chooses to save).
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int   MAGIC ('PM65')
+ *   short VERSION
+ *   short reserved (0)
+ *   int   length of CPU state, followed by the CPU state
+ *   int   length of memory state, followed by the memory state
+ * </pre>
+ * @author pmeade
+ */
+public class SaveState
+{
+    public static final int MAGIC = 0x504D3635;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 4;
+
+    public SaveState(Stateful cpu, Stateful mem) {
+        this.cpu = cpu;
+        this.mem = mem;
+    }
+
+    public int getSize() {
+        return HEADER_SIZE + cpu.getStateSize() + mem.getStateSize();
+    }
+
+    public void load(ByteBuffer buf) {
+        int magic = buf.getInt();
+        if(magic != MAGIC) {
+            throw new IllegalArgumentException("Not a save state: 0x" + Integer.toHexString(magic));
+        }
+        int version = buf.getShort() & 0xffff;
+        if(version != VERSION) {
+            throw new IllegalArgumentException("Unsupported save state version: " + version);
+        }
+        buf.getShort();
+        // check both sections before loading either, so a bad file
+        // leaves the CPU and memory untouched
+        int cpuLength = buf.getInt();
+        checkLength("CPU", cpuLength, cpu.getStateSize());
+        int memLengthAt = buf.position() + cpuLength;
+        if(buf.limit() - memLengthAt < 4) {
+            throw new IllegalArgumentException("Truncated save state");
+        }
+        int memLength = buf.getInt(memLengthAt);
+        checkLength("Memory", memLength, mem.getStateSize());
+        if(buf.limit() - memLengthAt - 4 < memLength) {
+            throw new IllegalArgumentException("Truncated save state");
+        }
+        cpu.loadState(buf);
+        buf.getInt();
+        mem.loadState(buf);
+    }
+
+    public void load(Path path) throws IOException {
+        ByteBuffer buf = getBuffer();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            while(buf.hasRemaining()) {
+                if(channel.read(buf) < 0) {
+                    throw new IOException("Truncated save state: " + path);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        buf.flip();
+        load(buf);
+    }
+
+    public ByteBuffer save() {
+        ByteBuffer buf = ByteBuffer.allocate(getSize());
+        save(buf);
+        buf.flip();
+        return buf;
+    }
+
+    public void save(ByteBuffer buf) {
+        buf.putInt(MAGIC);
+        buf.putShort((short) VERSION);
+        buf.putShort((short) 0);
+        buf.putInt(cpu.getStateSize());
+        cpu.saveState(buf);
+        buf.putInt(mem.getStateSize());
+        mem.saveState(buf);
+    }
+
+    public void save(Path path) throws IOException {
+        ByteBuffer buf = getBuffer();
+        save(buf);
+        buf.flip();
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            while(buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void checkLength(String what, int length, int expected) {
+        if(length != expected) {
+            throw new IllegalArgumentException(what + " state is " + length + " bytes, expected " + expected);
+        }
+    }
+
+    private ByteBuffer getBuffer() {
+        int size = getSize();
+        if((buffer == null) || (buffer.capacity() != size)) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private final Stateful cpu;
+    private final Stateful mem;
+    private ByteBuffer buffer;
+}
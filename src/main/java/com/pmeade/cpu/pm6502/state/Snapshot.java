@@ -0,0 +1,132 @@
+/*
+ * Snapshot.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Immutable in-memory image of a CPU and its Ram. The memory is held as a
+ * copy-on-write fork, so capturing a snapshot and starting new machines
+ * from it never copies 64K; pages are copied only as machines write them.
+ *
+ * The usual workflow is boot once, snapshot, start everywhere:
+ * <pre>
+ *   Snapshot ready = Snapshot.boot(cpu, ram, READY_PC, 500000000L);
+ *   PM6502 job = ready.start();
+ * </pre>
+ * @author pmeade
+ */
+public class Snapshot
+{
+    /**
+     * Run the machine from reset until it reaches the designated ready PC,
+     * and capture it there.
+     * @param cpu CPU to boot; its MemoryIO must be the provided ram
+     * @param ram memory of the machine
+     * @param readyPC address the guest reaches when it is ready for a job
+     * @param cycleLimit maximum number of cycles to run before giving up
+     * @return snapshot of the machine at the ready PC
+     */
+    public static Snapshot boot(PM6502 cpu, Ram ram, int readyPC, long cycleLimit) {
+        cpu.setMemoryIO(ram);
+        cpu.reset();
+        long limit = cpu.getCycleCount() + cycleLimit;
+        while(cpu.getPC() != readyPC) {
+            if(cpu.getCycleCount() >= limit) {
+                throw new IllegalStateException("Ready PC 0x" + Integer.toHexString(readyPC)
+                        + " not reached in " + cycleLimit + " cycles");
+            }
+            cpu.execute();
+        }
+        return capture(cpu, ram);
+    }
+
+    public static Snapshot capture(PM6502 cpu, Ram ram) {
+        ByteBuffer buf = ByteBuffer.allocate(PM6502.STATE_SIZE);
+        cpu.saveState(buf);
+        return new Snapshot(buf.array(), ram.fork(), cpu.getCycleCount());
+    }
+
+    public static Snapshot load(Path path) throws IOException {
+        PM6502 cpu = new PM6502();
+        Ram ram = new Ram();
+        new SaveState(cpu, ram).load(path);
+        return capture(cpu, ram);
+    }
+
+    public long getCycleCount() {
+        return cycleCount;
+    }
+
+    /**
+     * Put the CPU into the captured state, running on a fresh
+     * copy-on-write fork of the captured memory.
+     * @param cpu CPU to restore
+     * @return memory now attached to the CPU
+     */
+    public Ram restore(PM6502 cpu) {
+        Ram ram = memory.fork();
+        cpu.loadState(ByteBuffer.wrap(cpuState));
+        cpu.setMemoryIO(ram);
+        return ram;
+    }
+
+    /**
+     * Put the CPU and memory into the captured state in place. The CPU
+     * keeps its MemoryIO, so devices layered over the Ram stay attached.
+     * @param cpu CPU to restore
+     * @param ram memory to restore, as a copy-on-write share
+     */
+    public void restore(PM6502 cpu, Ram ram) {
+        ram.load(memory);
+        cpu.loadState(ByteBuffer.wrap(cpuState));
+    }
+
+    public void save(Path path) throws IOException {
+        PM6502 cpu = new PM6502();
+        Ram ram = restore(cpu);
+        new SaveState(cpu, ram).save(path);
+    }
+
+    /**
+     * Create a new machine in the captured state.
+     * @return new CPU attached to a copy-on-write fork of the memory
+     */
+    public PM6502 start() {
+        PM6502 cpu = new PM6502();
+        restore(cpu);
+        return cpu;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private Snapshot(byte[] cpuState, Ram memory, long cycleCount) {
+        this.cpuState = cpuState;
+        this.memory = memory;
+        this.cycleCount = cycleCount;
+    }
+
+    private final byte[] cpuState;
+    private final Ram memory;
+    private final long cycleCount;
+}
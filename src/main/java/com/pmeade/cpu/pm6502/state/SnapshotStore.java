@@ -0,0 +1,380 @@
+/*
+ * SnapshotStore.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-addressed store of snapshots. Every 256-byte page is hashed
+ * (128-bit murmur3) and stored once, no matter how many snapshots contain
+ * it; a snapshot is a manifest of the CPU state and its 256 page hashes.
+ *
+ * The store is a directory holding two memory-mapped files of fixed size
+ * records, pages.dat (hash + page) and manifests.dat (CPU state + page
+ * hashes), each mapped in 1 GB segments and holding up to
+ * Integer.MAX_VALUE records. Pages read back from disk are kept in an LRU cache, and are
+ * shared by every Ram restored from the store, since Ram never writes to
+ * a shared page.
+ *
+ * A record is written before the count in its file's header is raised
+ * to include it, and a snapshot's new pages are added before its
+ * manifest. A store opened after a crash keeps its page records up to the
+ * first one whose hash does not match its page, and its manifests up to
+ * the first one that names a missing page.
+ *
+ * A SnapshotStore is not thread safe.
+ * @author pmeade
+ */
+public class SnapshotStore implements Closeable
+{
+    public static final int MAGIC = 0x504D5353;
+    public static final int VERSION = 1;
+
+    public SnapshotStore(Path directory, int cacheSize) throws IOException {
+        this(directory, cacheSize, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory directory of the store
+     * @param cacheSize number of pages to keep in memory
+     * @param segmentSize largest single mapping of a store file, in bytes
+     */
+    SnapshotStore(Path directory, int cacheSize, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        this.pages = new RecordFile(directory.resolve("pages.dat"), PAGE_RECORD_SIZE, segmentSize);
+        this.manifests = new RecordFile(directory.resolve("manifests.dat"), MANIFEST_RECORD_SIZE, segmentSize);
+        this.index = new HashMap<Key,Integer>();
+        this.cache = new PageCache(cacheSize);
+        loadIndex();
+        checkManifests();
+    }
+
+    public void close() throws IOException {
+        pages.close();
+        manifests.close();
+    }
+
+    public int getPageCount() {
+        return pages.getCount();
+    }
+
+    /**
+     * Add a snapshot of the machine to the store.
+     * @param cpu CPU to capture
+     * @param ram memory of the CPU
+     * @return id of the snapshot in the store
+     * @throws IOException if a store file cannot grow
+     */
+    public int put(PM6502 cpu, Ram ram) throws IOException {
+        Ram frozen = ram.fork();
+        // pages first, so a visible manifest never names a missing page
+        byte[][] hashes = new byte[Ram.PAGES][];
+        for(int i=0; i<Ram.PAGES; i++) {
+            byte[] page = frozen.getPage(i);
+            byte[] hash = HASH.hashBytes(page).asBytes();
+            ByteBuffer hashBuf = ByteBuffer.wrap(hash);
+            Key key = new Key(hashBuf.getLong(), hashBuf.getLong());
+            if(!index.containsKey(key)) {
+                ByteBuffer record = pages.newRecord();
+                record.put(hash);
+                record.put(page);
+                pages.publish();
+                index.put(key, pages.getCount() - 1);
+                cache.put(key, page);
+            }
+            hashes[i] = hash;
+        }
+        ByteBuffer manifest = manifests.newRecord();
+        cpu.saveState(manifest);
+        for(byte[] hash : hashes) {
+            manifest.put(hash);
+        }
+        manifests.publish();
+        return manifests.getCount() - 1;
+    }
+
+    /**
+     * Put the CPU into the state of a stored snapshot.
+     * @param id id of the snapshot
+     * @param cpu CPU to restore
+     * @return copy-on-write memory of the snapshot, now attached to the CPU
+     */
+    public Ram restore(int id, PM6502 cpu) {
+        if((id < 0) || (id >= manifests.getCount())) {
+            throw new IllegalArgumentException("No such snapshot: " + id);
+        }
+        ByteBuffer manifest = manifests.getRecord(id);
+        cpu.loadState(manifest);
+        byte[][] table = new byte[Ram.PAGES][];
+        for(int i=0; i<Ram.PAGES; i++) {
+            table[i] = getPage(new Key(manifest.getLong(), manifest.getLong()));
+        }
+        Ram ram = new Ram(table);
+        cpu.setMemoryIO(ram);
+        return ram;
+    }
+
+    public int size() {
+        return manifests.getCount();
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Drop the manifests from the first one that names a page the store
+     * does not hold.
+     */
+    private void checkManifests() {
+        for(int i=0; i<manifests.getCount(); i++) {
+            ByteBuffer manifest = manifests.getRecord(i);
+            manifest.position(manifest.position() + PM6502.STATE_SIZE);
+            for(int j=0; j<Ram.PAGES; j++) {
+                if(!index.containsKey(new Key(manifest.getLong(), manifest.getLong()))) {
+                    manifests.truncate(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    private byte[] getPage(Key key) {
+        byte[] page = cache.get(key);
+        if(page == null) {
+            Integer slot = index.get(key);
+            if(slot == null) {
+                throw new IllegalStateException("Snapshot store is missing a page");
+            }
+            ByteBuffer record = pages.getRecord(slot);
+            record.position(record.position() + HASH_SIZE);
+            page = new byte[Ram.PAGE_SIZE];
+            record.get(page);
+            cache.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Index the page records, dropping them from the first one whose page
+     * does not match its hash.
+     */
+    private void loadIndex() {
+        byte[] page = new byte[Ram.PAGE_SIZE];
+        for(int i=0; i<pages.getCount(); i++) {
+            ByteBuffer record = pages.getRecord(i);
+            long hi = record.getLong();
+            long lo = record.getLong();
+            record.get(page);
+            ByteBuffer hash = ByteBuffer.wrap(HASH.hashBytes(page).asBytes());
+            if((hash.getLong() != hi) || (hash.getLong() != lo)) {
+                pages.truncate(i);
+                return;
+            }
+            index.put(new Key(hi, lo), i);
+        }
+    }
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final int HASH_SIZE = 16;
+    private static final int PAGE_RECORD_SIZE = HASH_SIZE + Ram.PAGE_SIZE;
+    private static final int MANIFEST_RECORD_SIZE = PM6502.STATE_SIZE + (HASH_SIZE * Ram.PAGES);
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private static class Key
+    {
+        public Key(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) { return false; }
+            Key key = (Key) o;
+            return (hi == key.hi) && (lo == key.lo);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) lo;
+        }
+
+        private final long hi;
+        private final long lo;
+    }
+
+    private static class PageCache extends LinkedHashMap<Key,byte[]>
+    {
+        public PageCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,byte[]> eldest) {
+            return size() > capacity;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+    }
+
+    /**
+     * Memory-mapped file of fixed size records, behind a header of
+     * magic, version, record size and record count. The records are
+     * mapped in segments of at most segmentSize bytes, so the file is not
+     * limited to the 2 GB one mapping can hold; only the record count is,
+     * to Integer.MAX_VALUE.
+     */
+    private static class RecordFile
+    {
+        public RecordFile(Path path, int recordSize, int segmentSize) throws IOException {
+            this.path = path;
+            this.recordSize = recordSize;
+            this.segmentRecords = Math.max(1, segmentSize / recordSize);
+            this.segments = new ArrayList<MappedByteBuffer>();
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            boolean created = (channel.size() == 0);
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if(created) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, recordSize);
+                header.putInt(12, 0);
+            } else if((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)
+                    || (header.getInt(8) != recordSize)) {
+                throw new IOException("Not a snapshot store file: " + path);
+            }
+            count = header.getInt(12);
+            ensureMapped(Math.max(count, INITIAL_RECORDS));
+        }
+
+        /**
+         * @return the record after the last one; it is not part of the
+         *         file until publish()
+         * @throws IOException if the file cannot grow, or already holds
+         *         Integer.MAX_VALUE records
+         */
+        public ByteBuffer newRecord() throws IOException {
+            if(count == Integer.MAX_VALUE) {
+                throw new IOException("Snapshot store file is full: " + path);
+            }
+            ensureMapped(count + 1L);
+            return getRecord(count);
+        }
+
+        /**
+         * Add the record from newRecord() to the file.
+         */
+        public void publish() {
+            count++;
+            header.putInt(12, count);
+        }
+
+        /**
+         * Drop every record from the given one on.
+         */
+        public void truncate(int newCount) {
+            count = newCount;
+            header.putInt(12, count);
+        }
+
+        public void close() throws IOException {
+            for(MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+            channel.close();
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public ByteBuffer getRecord(int i) {
+            ByteBuffer record = segments.get(i / segmentRecords).duplicate();
+            int offset = (i % segmentRecords) * recordSize;
+            record.position(offset);
+            record.limit(offset + recordSize);
+            return record;
+        }
+
+        /**
+         * Map at least the first n records, growing the last segment by
+         * doubling up to its full size, then adding segments.
+         */
+        private void ensureMapped(long n) throws IOException {
+            while(true) {
+                int last = segments.size() - 1;
+                int lastRecords = (last < 0) ? 0 : segments.get(last).capacity() / recordSize;
+                long mapped = (last < 0) ? 0 : (last * (long) segmentRecords) + lastRecords;
+                if(mapped >= n) {
+                    return;
+                }
+                if((last >= 0) && (lastRecords < segmentRecords)) {
+                    long wanted = Math.max(2L * lastRecords, n - (last * (long) segmentRecords));
+                    segments.set(last, mapSegment(last, (int) Math.min(segmentRecords, wanted)));
+                } else {
+                    long wanted = Math.max(INITIAL_RECORDS, n - mapped);
+                    segments.add(mapSegment(last + 1, (int) Math.min(segmentRecords, wanted)));
+                }
+            }
+        }
+
+        private MappedByteBuffer mapSegment(int segment, int records) throws IOException {
+            long offset = HEADER_SIZE + (segment * (long) segmentRecords * recordSize);
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset, records * (long) recordSize);
+        }
+
+        private static final int HEADER_SIZE = 16;
+        private static final int INITIAL_RECORDS = 256;
+
+        private final Path path;
+        private final FileChannel channel;
+        private final int recordSize;
+        private final int segmentRecords;
+        private final MappedByteBuffer header;
+        private final List<MappedByteBuffer> segments;
+        private int count;
+    }
+
+    private final RecordFile pages;
+    private final RecordFile manifests;
+    private final Map<Key,Integer> index;
+    private final PageCache cache;
+}
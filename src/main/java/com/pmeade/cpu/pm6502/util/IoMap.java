@@ -0,0 +1,49 @@
+/*
+ * IoMap.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.util;
+
+/**
+ * Marks which addresses belong to devices rather than RAM.
+ * @author pmeade
+ */
+public class IoMap
+{
+    public IoMap() {
+        io = new boolean[0x10000];
+    }
+
+    public boolean isIO(int address) {
+        return io[address];
+    }
+
+    /**
+     * Mark a range of addresses as device (non-RAM) addresses.
+     * @param from first address of the range
+     * @param to last address of the range (inclusive)
+     * @return this map, for chaining
+     */
+    public IoMap mapIO(int from, int to) {
+        for(int i=from; i<=to; i++) {
+            io[i] = true;
+        }
+        return this;
+    }
+
+    private final boolean[] io;
+}
@@ -18,7 +18,6 @@
 
 package com.pmeade.cpu.pm6502.util;
 
-import com.pmeade.cpu.pm6502.MemoryIO;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -31,36 +30,26 @@ import static com.pmeade.cpu.pm6502.Cpu6502.*;
 public class MemoryBuilder
 {
     public MemoryBuilder() {
-        memory = new int[0x10000];
+        memory = new byte[Ram.SIZE];
     }
     
-    public MemoryIO create() {
+    public Ram create() {
         if(nmiAddrSet) {
-            memory[NMI_LO] = (nmiAddr & 0xff);
-            memory[NMI_HI] = ((nmiAddr & 0xff00) >> 8);
+            memory[NMI_LO] = (byte) (nmiAddr & 0xff);
+            memory[NMI_HI] = (byte) ((nmiAddr & 0xff00) >> 8);
         }
         
         if(resetAddrSet) {
-            memory[RESET_LO] = (resetAddr & 0xff);
-            memory[RESET_HI] = ((resetAddr & 0xff00) >> 8);
+            memory[RESET_LO] = (byte) (resetAddr & 0xff);
+            memory[RESET_HI] = (byte) ((resetAddr & 0xff00) >> 8);
         }
         
         if(irqAddrSet) {
-            memory[IRQ_LO] = (irqAddr & 0xff);
-            memory[IRQ_HI] = ((irqAddr & 0xff00) >> 8);
+            memory[IRQ_LO] = (byte) (irqAddr & 0xff);
+            memory[IRQ_HI] = (byte) ((irqAddr & 0xff00) >> 8);
         }
         
-        return new MemoryIO() {
-            private int[] localMemory = memory;
-            
-            public int read(int address) {
-                return (localMemory[address] & 0xff);
-            }
-
-            public void write(int address, int data) {
-                localMemory[address] = (data & 0xff);
-            }
-        };
+        return new Ram(memory);
     }
 
     public MemoryBuilder irqAt(int address) {
@@ -75,7 +64,7 @@ public class MemoryBuilder
             FileInputStream fileInputStream = new FileInputStream(binaryFile);
             int data = fileInputStream.read();
             while(data != -1) {
-                memory[putAddr] = data; putAddr++;
+                memory[putAddr] = (byte) data; putAddr++;
                 data = fileInputStream.read();
             }
         } catch(IOException e) {
@@ -88,7 +77,7 @@ public class MemoryBuilder
     public MemoryBuilder load(int[] data) {
         if(data != null) {
             for(int i=0; i<data.length; i++) {
-                memory[putAddr] = data[i];
+                memory[putAddr] = (byte) data[i];
                 putAddr++;
             }
         }
@@ -114,7 +103,7 @@ public class MemoryBuilder
     
     public MemoryBuilder put(int... data) {
         for(int i : data) {
-            memory[putAddr] = i; putAddr++;
+            memory[putAddr] = (byte) i; putAddr++;
         }
         return this;
     }
@@ -131,7 +120,7 @@ public class MemoryBuilder
         return this;
     }
     
-    private int[] memory;
+    private byte[] memory;
     private int irqAddr;
     private boolean irqAddrSet;
     private int nmiAddr;
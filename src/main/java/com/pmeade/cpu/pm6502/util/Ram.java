@@ -0,0 +1,149 @@
+/*
+ * Ram.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.util;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.Stateful;
+import java.nio.ByteBuffer;
+
+/**
+ * 64K of RAM organized as 256 pages of 256 bytes. Pages may be shared
+ * between a Ram and its forks; a shared page is copied on the first
+ * write to it, so fork() costs a page table copy rather than 64K.
+ * @author pmeade
+ */
+public class Ram implements MemoryIO, Stateful
+{
+    public static final int SIZE = 0x10000;
+    public static final int PAGE_SIZE = 0x100;
+    public static final int PAGES = SIZE / PAGE_SIZE;
+
+    public Ram() {
+        pages = new byte[PAGES][];
+        shared = new boolean[PAGES];
+        for(int i=0; i<PAGES; i++) {
+            pages[i] = new byte[PAGE_SIZE];
+        }
+    }
+
+    public Ram(byte[] memory) {
+        this();
+        if(memory.length != SIZE) {
+            throw new IllegalArgumentException("Ram must be 0x10000 bytes: " + memory.length);
+        }
+        for(int i=0; i<PAGES; i++) {
+            System.arraycopy(memory, i * PAGE_SIZE, pages[i], 0, PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Create a Ram over an existing page table. Every page is treated as
+     * shared, so the arrays in the table are never modified.
+     * @param pages table of 256 pages of 256 bytes
+     */
+    public Ram(byte[][] pages) {
+        if(pages.length != PAGES) {
+            throw new IllegalArgumentException("Ram must have 0x100 pages: " + pages.length);
+        }
+        this.pages = pages;
+        this.shared = new boolean[PAGES];
+        for(int i=0; i<PAGES; i++) {
+            shared[i] = true;
+        }
+    }
+
+    /**
+     * Create a copy of this memory that shares all of its pages. Both
+     * this Ram and the fork copy a page before writing to it.
+     * @return copy-on-write fork of this memory
+     */
+    public Ram fork() {
+        share();
+        return new Ram(pages.clone());
+    }
+
+    /**
+     * Obtain the backing array of a page. Only pages of a Ram that is
+     * never written (such as a fork held by a snapshot) are stable;
+     * callers must not modify the returned array.
+     * @param page page number (0x00 to 0xff)
+     * @return backing array of the page
+     */
+    public byte[] getPage(int page) {
+        return pages[page];
+    }
+
+    public int getStateSize() {
+        return SIZE;
+    }
+
+    /**
+     * Replace the contents of this memory with a copy-on-write share of
+     * the contents of another.
+     * @param source memory to copy
+     */
+    public void load(Ram source) {
+        source.share();
+        System.arraycopy(source.pages, 0, pages, 0, PAGES);
+        for(int i=0; i<PAGES; i++) {
+            shared[i] = true;
+        }
+    }
+
+    public void loadState(ByteBuffer buf) {
+        for(int i=0; i<PAGES; i++) {
+            if(shared[i]) {
+                pages[i] = new byte[PAGE_SIZE];
+                shared[i] = false;
+            }
+            buf.get(pages[i]);
+        }
+    }
+
+    public int read(int address) {
+        return (pages[address >> 8][address & 0xff] & 0xff);
+    }
+
+    public void saveState(ByteBuffer buf) {
+        for(int i=0; i<PAGES; i++) {
+            buf.put(pages[i]);
+        }
+    }
+
+    public void write(int address, int data) {
+        int page = address >> 8;
+        if(shared[page]) {
+            pages[page] = pages[page].clone();
+            shared[page] = false;
+        }
+        pages[page][address & 0xff] = (byte) data;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void share() {
+        for(int i=0; i<PAGES; i++) {
+            // avoid writes, so concurrent forks of a frozen Ram don't race
+            if(!shared[i]) { shared[i] = true; }
+        }
+    }
+
+    private final byte[][] pages;
+    private final boolean[] shared;
+}
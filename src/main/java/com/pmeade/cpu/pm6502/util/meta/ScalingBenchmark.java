@@ -0,0 +1,141 @@
+/*
+ * ScalingBenchmark.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.util.meta;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures aggregate instructions per second with one CPU per thread,
+ * at 1 to N threads. With perfect scaling the per-thread rate stays flat;
+ * a drop as threads are added points at shared cache lines or memory
+ * bandwidth.
+ *
+ * The CPUs for each run are allocated back to back on one thread, which
+ * is the worst case for false sharing between instances.
+ *
+ * Usage: ScalingBenchmark [maxThreads] [millisPerRun]
+ * @author pmeade
+ */
+public class ScalingBenchmark
+{
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        long millis = (args.length > 1) ? Long.parseLong(args[1]) : 2000L;
+        ScalingBenchmark benchmark = new ScalingBenchmark();
+        benchmark.measure(maxThreads, millis);   // warm-up
+        System.out.println("threads  Minstr/s  per-thread  efficiency");
+        double single = 0.0;
+        for(int threads=1; threads<=maxThreads; threads++) {
+            double rate = benchmark.measure(threads, millis);
+            if(threads == 1) {
+                single = rate;
+            }
+            System.out.println(String.format("%7d  %8.2f  %10.2f  %9.0f%%",
+                    threads, rate / 1.0e6, rate / threads / 1.0e6,
+                    100.0 * rate / (single * threads)));
+        }
+    }
+
+    /**
+     * Run one CPU per thread for the given time.
+     * @param threads number of threads
+     * @param millis length of the run
+     * @return aggregate instructions per second
+     */
+    public double measure(int threads, long millis) throws InterruptedException {
+        // build the memories first, so that nothing is allocated between
+        // the CPUs and they sit next to each other in the heap
+        Ram[] rams = new Ram[threads];
+        for(int i=0; i<threads; i++) {
+            rams[i] = createRam();
+        }
+        final PM6502[] cpus = new PM6502[threads];
+        for(int i=0; i<threads; i++) {
+            cpus[i] = new PM6502();
+        }
+        for(int i=0; i<threads; i++) {
+            cpus[i].setMemoryIO(rams[i]);
+            cpus[i].reset();
+        }
+        final long[] counts = new long[threads];
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        stop = false;
+        Thread[] workers = new Thread[threads];
+        for(int i=0; i<threads; i++) {
+            final int id = i;
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    PM6502 cpu = cpus[id];
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    long count = 0;
+                    while(!stop) {
+                        for(int j=0; j<BATCH; j++) {
+                            cpu.execute();
+                        }
+                        count += BATCH;
+                    }
+                    counts[id] = count;
+                }
+            });
+            workers[i].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(millis);
+        stop = true;
+        for(Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long total = 0;
+        for(long count : counts) {
+            total += count;
+        }
+        return total * 1.0e9 / elapsed;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private Ram createRam() {
+        return new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       // start: ldx #$00
+                .put(0xbd, 0x00, 0x02) // loop:  lda $0200,x
+                .put(0x69, 0x01)       //        adc #$01
+                .put(0x9d, 0x00, 0x02) //        sta $0200,x
+                .put(0xe8)             //        inx
+                .put(0xd0, 0xf5)       //        bne loop
+                .put(0x4c, 0x00, 0xc0) //        jmp start
+                .create();
+    }
+
+    private static final int BATCH = 4096;
+
+    private volatile boolean stop;
+}
@@ -95,6 +95,48 @@ public class PM6502Test
         verify(mem);
     }
 
+    @Test
+    public void testDoIrq() {
+        MemoryIO mem = new MemoryBuilder().startAt(0xC004)
+                .put(0xa9, 0x55) // lda #$55
+                .irqAt(0xface)
+                .put(0xa2, 0x77) // ldx #$77
+                .create();
+        cpu6502.setMemoryIO(mem);
+        cpu6502.reset();
+        cpu6502.doIRQ();
+        int cycles = cpu6502.execute();
+        
+        assertEquals(2, cycles);
+        assertEquals(0x00, cpu6502.getAC());
+        assertEquals(0xfad0, cpu6502.getPC());
+        assertEquals(0xfc, cpu6502.getSP());
+        assertEquals(FLAG_RESERVED | FLAG_INTERRUPT, cpu6502.getSR());
+        assertEquals(0x77, cpu6502.getXR());
+        assertEquals(0xc0, mem.read(0x100 | 0xFF));
+        assertEquals(0x04, mem.read(0x100 | 0xFE));
+        assertEquals(FLAG_RESERVED | FLAG_ZERO, mem.read(0x100 | 0xFD));
+    }
+
+    @Test
+    public void testDoIrqMasked() {
+        MemoryIO mem = new MemoryBuilder().startAt(0xC004)
+                .put(0xa9, 0x55) // lda #$55
+                .irqAt(0xface)
+                .put(0xa2, 0x77) // ldx #$77
+                .create();
+        cpu6502.setMemoryIO(mem);
+        cpu6502.reset();
+        cpu6502.setSR(FLAG_RESERVED | FLAG_INTERRUPT);
+        cpu6502.doIRQ();
+        int cycles = cpu6502.execute();
+        
+        assertEquals(2, cycles);
+        assertEquals(0x55, cpu6502.getAC());
+        assertEquals(0xC006, cpu6502.getPC());
+        assertEquals(0xFF, cpu6502.getSP());
+    }
+
     @Test
     public void testDoNmi() {
         MemoryIO mem = new MemoryBuilder().startAt(0xC004)
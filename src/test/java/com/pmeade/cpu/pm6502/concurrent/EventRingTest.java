@@ -0,0 +1,163 @@
+/*
+ * EventRingTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class EventRingTest
+{
+    public EventRingTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testDrop() {
+        EventRing ring = new EventRing(8, EventRing.Overflow.DROP);
+        EventConsumer consumer = ring.addConsumer();
+        for(int i=0; i<10; i++) {
+            assertEquals(i < 8, ring.publish(i, 0xC000 + i, i, i, EventRing.KIND_WRITE));
+        }
+        assertEquals(2, ring.getDropped());
+        assertEquals(8, consumer.getBacklog());
+        final long[] seen = new long[1];
+        int n = consumer.poll(new EventHandler() {
+            public void onEvent(long sequence, long cycle, int pc, int address, int value, int kind) {
+                assertEquals(seen[0], sequence);
+                assertEquals(seen[0], cycle);
+                assertEquals(0xC000 + (int) cycle, pc);
+                assertEquals(EventRing.KIND_WRITE, kind);
+                seen[0]++;
+            }
+        }, 100);
+        assertEquals(8, n);
+        assertTrue(ring.publish(8, 0, 0, 0, EventRing.KIND_READ));
+        assertEquals(1, consumer.getBacklog());
+    }
+
+    @Test
+    public void testSample() {
+        EventRing ring = new EventRing(64, EventRing.Overflow.SAMPLE, 4);
+        ring.addConsumer();
+        int published = 0;
+        for(int i=0; i<64; i++) {
+            if(ring.publish(i, 0, 0, 0, EventRing.KIND_READ)) {
+                published++;
+            }
+        }
+        // half the ring unconditionally, then one in four
+        assertEquals(32 + 8, published);
+        assertEquals(64 - 40, ring.getDropped());
+    }
+
+    @Test
+    public void testBlockDeliversEverything() throws Exception {
+        final EventRing ring = new EventRing(64, EventRing.Overflow.BLOCK);
+        final int count = 100000;
+        final long[] sums = new long[2];
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        Thread[] threads = new Thread[2];
+        for(int t=0; t<threads.length; t++) {
+            final int id = t;
+            final EventConsumer consumer = ring.addConsumer();
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    final long[] expected = new long[1];
+                    EventHandler handler = new EventHandler() {
+                        public void onEvent(long sequence, long cycle, int pc, int address, int value, int kind) {
+                            if(cycle != expected[0]) { ordered.set(false); }
+                            expected[0]++;
+                            sums[id] += value;
+                        }
+                    };
+                    while(expected[0] < count) {
+                        if(consumer.poll(handler, 16) == 0) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long sum = 0;
+        for(int i=0; i<count; i++) {
+            assertTrue(ring.publish(i, 0, 0, i & 0xff, EventRing.KIND_EXECUTE));
+            sum += i & 0xff;
+        }
+        for(Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertTrue(ordered.get());
+        assertEquals(sum, sums[0]);
+        assertEquals(sum, sums[1]);
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void testEventMemoryIO() {
+        EventRing ring = new EventRing(16, EventRing.Overflow.DROP);
+        EventConsumer consumer = ring.addConsumer();
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(new EventMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0xa9, 0x55)       // lda #$55
+                .put(0x8d, 0x00, 0x02) // sta $0200
+                .create(), cpu, ring));
+        cpu.reset();
+        cpu.execute();
+        cpu.execute();
+        final int[] writes = new int[1];
+        consumer.poll(new EventHandler() {
+            public void onEvent(long sequence, long cycle, int pc, int address, int value, int kind) {
+                if(kind == EventRing.KIND_WRITE) {
+                    assertEquals(0x0200, address);
+                    assertEquals(0x55, value);
+                    writes[0]++;
+                }
+            }
+        }, 16);
+        assertEquals(1, writes[0]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * RegisterPublisherTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class RegisterPublisherTest
+{
+    private PM6502 cpu6502;
+
+    public RegisterPublisherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        cpu6502 = new PM6502();
+        cpu6502.setMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8a)             // txa
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create());
+        cpu6502.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testPublishInterval() {
+        RegisterPublisher publisher = new RegisterPublisher(cpu6502, 3);
+        assertEquals(0, publisher.snapshot().getVersion());
+        publisher.execute();
+        publisher.execute();
+        assertEquals(0, publisher.snapshot().getVersion());
+        publisher.execute();
+        RegisterSnapshot snapshot = publisher.snapshot();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(0xC000, snapshot.getPC());
+        assertEquals(0x01, snapshot.getAC());
+        assertEquals(0x01, snapshot.getXR());
+        assertEquals(0xFF, snapshot.getSP());
+        assertEquals(cpu6502.getSR(), snapshot.getSR());
+        assertEquals(7, snapshot.getCycleCount());
+    }
+
+    @Test
+    public void testConcurrentReadsAreCoherent() throws Exception {
+        final RegisterPublisher publisher = new RegisterPublisher(cpu6502, 1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread observer = new Thread() {
+            public void run() {
+                RegisterSnapshot snapshot = new RegisterSnapshot();
+                while(running.get()) {
+                    publisher.read(snapshot);
+                    long phase = snapshot.getCycleCount() % 7;
+                    int pc = snapshot.getPC();
+                    boolean ok = (pc == 0xC000 && phase == 0)
+                              || (pc == 0xC001 && phase == 2 && snapshot.getXR() == ((snapshot.getAC() + 1) & 0xff))
+                              || (pc == 0xC002 && phase == 4 && snapshot.getXR() == snapshot.getAC());
+                    if(!ok && (snapshot.getVersion() > 0)) {
+                        failure.set("Torn snapshot at cycle " + snapshot.getCycleCount());
+                    }
+                }
+            }
+        };
+        observer.start();
+        while(cpu6502.getCycleCount() < 20000000) {
+            publisher.execute();
+        }
+        running.set(false);
+        observer.join();
+        assertNull(failure.get());
+    }
+}
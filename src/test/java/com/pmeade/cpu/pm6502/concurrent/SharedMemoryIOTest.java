@@ -0,0 +1,146 @@
+/*
+ * SharedMemoryIOTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.IoMap;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import java.io.File;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class SharedMemoryIOTest
+{
+    private File file;
+    private SharedBus cpuSide;
+    private SharedBus deviceSide;
+
+    public SharedMemoryIOTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("pm6502", ".bus");
+        file.deleteOnExit();
+        cpuSide = SharedBus.create(file.toPath(), 4);
+        // a second mapping of the file stands in for the other process
+        deviceSide = SharedBus.open(file.toPath());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testMailbox() {
+        assertEquals(-1, deviceSide.poll());
+        for(int i=0; i<4; i++) {
+            assertTrue(cpuSide.post(0xD000, i));
+        }
+        assertFalse(cpuSide.post(0xD000, 4));
+        assertEquals(4, deviceSide.getPosted());
+        assertEquals(0xD00000, deviceSide.poll());
+        assertTrue(cpuSide.post(0xD001, 0xff));
+        assertEquals(0xD00001, deviceSide.poll());
+        assertEquals(0xD00002, deviceSide.poll());
+        assertEquals(0xD00003, deviceSide.poll());
+        assertEquals(0xD001ff, deviceSide.poll());
+        assertEquals(-1, deviceSide.poll());
+    }
+
+    @Test
+    public void testWriteDoesNotSetRegister() {
+        SharedMemoryIO mem = new SharedMemoryIO(new MemoryBuilder().create(),
+                new IoMap().mapIO(0xD000, 0xD0FF), cpuSide);
+        // a status register that reads back 'ready'
+        deviceSide.writeRegister(0xD000, 0x80);
+        mem.write(0xD000, 0x01);
+        assertEquals(0x80, mem.read(0xD000));
+        assertEquals(0xD00001, deviceSide.poll());
+        deviceSide.writeRegister(0xD000, 0x00);
+        assertEquals(0x00, mem.read(0xD000));
+        // local memory is still written through
+        mem.write(0x0200, 0x42);
+        assertEquals(0x42, mem.read(0x0200));
+    }
+
+    @Test
+    public void testCoSimulation() throws Exception {
+        // peripheral: echo each byte written to $D000 back at $D001, plus one
+        Thread device = new Thread(new Runnable() {
+            public void run() {
+                int handled = 0;
+                while(handled < 16) {
+                    int entry = deviceSide.poll();
+                    if(entry < 0) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    assertEquals(0xD000, entry >> 8);
+                    deviceSide.writeRegister(0xD001, (entry & 0xff) + 1);
+                    handled++;
+                }
+                deviceSide.setIRQ(true);
+            }
+        });
+        device.start();
+        PM6502 cpu = new PM6502();
+        SharedMemoryIO mem = new SharedMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       //        ldx #$00
+                .put(0x8e, 0x00, 0xd0) // next:  stx $d000
+                .put(0xe8)             //        inx
+                .put(0x8a)             // wait:  txa
+                .put(0x4d, 0x01, 0xd0) //        eor $d001
+                .put(0xd0, 0xfa)       //        bne wait
+                .put(0x8a)             //        txa
+                .put(0x29, 0x10)       //        and #$10
+                .put(0xf0, 0xf1)       //        beq next
+                .put(0x4c, 0x11, 0xc0) // done:  jmp done
+                .create(), new IoMap().mapIO(0xD000, 0xD0FF), cpuSide);
+        cpu.setMemoryIO(mem);
+        cpu.reset();
+        long deadline = System.currentTimeMillis() + 10000;
+        while(cpu.getPC() != 0xC011) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            cpu.execute();
+        }
+        device.join(10000);
+        assertEquals(0x10, cpu.getXR());
+        assertEquals(0x10, mem.read(0xD001));
+        assertTrue(mem.isIRQ());
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * TracePublisherTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.concurrent;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class TracePublisherTest
+{
+    private PM6502 cpu6502;
+    private Ram ram;
+
+    public TracePublisherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        cpu6502 = new PM6502();
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8e, 0x00, 0x02) //       stx $0200
+                .put(0x4c, 0x00, 0xc0) //       jmp loop
+                .create();
+        cpu6502.setMemoryIO(ram);
+        cpu6502.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testPauseDeliversEverything() throws Exception {
+        TracePublisher publisher = new TracePublisher(cpu6502, 64, TracePublisher.Policy.PAUSE, 1);
+        cpu6502.setMemoryIO(publisher.wrap(ram));
+        final Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        // a slow consumer that asks for the next chunk after handling one
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while(true) {
+                        EventChunk chunk = consumer.chunks.take();
+                        if(chunk.size() == 0) {
+                            return;
+                        }
+                        consumer.check(chunk);
+                        Thread.sleep(1);
+                        consumer.subscription.request(1);
+                    }
+                } catch(InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        consumer.subscription.request(1);
+        thread.start();
+        for(int i=0; i<3000; i++) {
+            publisher.execute();
+        }
+        consumer.chunks.add(new EventChunk(1));
+        thread.join(10000);
+        // 3000 instructions and 1000 writes fill 62 chunks of 64
+        assertEquals(62 * 64, consumer.events);
+        assertEquals(0, publisher.getDropped());
+        assertFalse(consumer.gap);
+        assertFalse(consumer.sampled);
+    }
+
+    @Test
+    public void testSampleDoesNotBlock() throws Exception {
+        TracePublisher publisher = new TracePublisher(cpu6502, 64, TracePublisher.Policy.SAMPLE, 8);
+        cpu6502.setMemoryIO(publisher.wrap(ram));
+        Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        for(int i=0; i<3000; i++) {
+            publisher.execute();
+        }
+        assertEquals(0, consumer.chunks.size());
+        assertTrue(publisher.getDropped() > 3000);
+
+        consumer.subscription.request(2);
+        for(int i=0; i<3000; i++) {
+            publisher.execute();
+        }
+        assertEquals(2, consumer.chunks.size());
+        assertTrue(consumer.chunks.take().isSampled());
+        EventChunk chunk = consumer.chunks.take();
+        assertFalse(chunk.isSampled());
+        consumer.check(chunk);
+        assertFalse(consumer.gap);
+    }
+
+    @Test
+    public void testInterruptedPauseDropsChunk() throws Exception {
+        final TracePublisher publisher = new TracePublisher(cpu6502, 16, TracePublisher.Policy.PAUSE, 1);
+        cpu6502.setMemoryIO(publisher.wrap(ram));
+        Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        final Throwable[] failure = new Throwable[1];
+        final boolean[] interrupted = new boolean[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for(int i=0; i<300; i++) {
+                        publisher.execute();
+                    }
+                } catch(Throwable t) {
+                    failure[0] = t;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        thread.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while(thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        thread.interrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(failure[0]);
+        assertTrue(interrupted[0]);
+        assertEquals(0, consumer.chunks.size());
+        assertTrue(publisher.getDropped() >= 16);
+
+        // once there is demand again, chunks are delivered
+        consumer.subscription.request(1);
+        for(int i=0; (i<100) && consumer.chunks.isEmpty(); i++) {
+            publisher.execute();
+        }
+        assertEquals(1, consumer.chunks.size());
+        assertEquals(16, consumer.chunks.peek().size());
+    }
+
+    @Test
+    public void testTracingAddsNoReads() {
+        final int[] reads = new int[1];
+        MemoryIO counting = new MemoryIO() {
+            public int read(int address) {
+                reads[0]++;
+                return ram.read(address);
+            }
+
+            public void write(int address, int data) {
+                ram.write(address, data);
+            }
+        };
+        TracePublisher publisher = new TracePublisher(cpu6502, 1024, TracePublisher.Policy.PAUSE, 1);
+        cpu6502.setMemoryIO(publisher.wrap(counting));
+        for(int i=0; i<30; i++) {
+            publisher.execute();
+        }
+        int untraced = reads[0];
+        Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        consumer.subscription.request(1);
+        reads[0] = 0;
+        for(int i=0; i<30; i++) {
+            publisher.execute();
+        }
+        assertEquals(untraced, reads[0]);
+        publisher.close();
+        EventChunk chunk = consumer.chunks.peek();
+        // 30 instructions and 10 writes
+        assertEquals(40, chunk.size());
+        assertEquals(EventRing.KIND_EXECUTE, chunk.getKind(0));
+        assertEquals(0xe8, chunk.getValue(0));
+        consumer.check(chunk);
+        assertFalse(consumer.gap);
+    }
+
+    @Test
+    public void testBadRequestWakesPause() throws Exception {
+        final TracePublisher publisher = new TracePublisher(cpu6502, 16, TracePublisher.Policy.PAUSE, 1);
+        cpu6502.setMemoryIO(publisher.wrap(ram));
+        final Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for(int i=0; i<100; i++) {
+                    publisher.execute();
+                }
+            }
+        });
+        thread.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while(thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        consumer.subscription.request(-1);
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(consumer.error instanceof IllegalArgumentException);
+        assertSame(thread, consumer.errorThread);
+        assertEquals(0, consumer.chunks.size());
+    }
+
+    @Test
+    public void testCompleteAndBadRequest() {
+        TracePublisher publisher = new TracePublisher(cpu6502, 16, TracePublisher.Policy.PAUSE, 1);
+        cpu6502.setMemoryIO(publisher.wrap(ram));
+        Consumer consumer = new Consumer();
+        publisher.subscribe(consumer);
+        consumer.subscription.request(1);
+        publisher.execute();
+        publisher.close();
+        assertTrue(consumer.complete);
+        assertEquals(1, consumer.chunks.size());
+        assertEquals(1, consumer.chunks.peek().size());
+
+        Consumer bad = new Consumer();
+        publisher.subscribe(bad);
+        bad.subscription.request(0);
+        // the error is signalled by the emulation thread, which then
+        // drops the bad subscriber, so this does not pause
+        assertNull(bad.error);
+        publisher.execute();
+        assertTrue(bad.error instanceof IllegalArgumentException);
+        for(int i=0; i<20; i++) {
+            publisher.execute();
+        }
+        assertEquals(0, bad.chunks.size());
+    }
+
+    private static class Consumer implements Flow.Subscriber<EventChunk>
+    {
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(EventChunk item) {
+            chunks.add(item);
+        }
+
+        public void onError(Throwable throwable) {
+            errorThread = Thread.currentThread();
+            error = throwable;
+        }
+
+        public void onComplete() {
+            complete = true;
+        }
+
+        /**
+         * Check the instruction events follow the program's loop.
+         */
+        public void check(EventChunk chunk) {
+            sampled |= chunk.isSampled();
+            for(int i=0; i<chunk.size(); i++) {
+                events++;
+                if(chunk.getKind(i) == EventRing.KIND_WRITE) {
+                    gap |= (chunk.getAddress(i) != 0x0200) || (lastPC != 0xC001);
+                    continue;
+                }
+                int pc = chunk.getAddress(i);
+                if(lastPC >= 0) {
+                    int expected = (lastPC == 0xC000) ? 0xC001 : (lastPC == 0xC001) ? 0xC004 : 0xC000;
+                    gap |= (pc != expected);
+                }
+                lastPC = pc;
+            }
+        }
+
+        private final LinkedBlockingQueue<EventChunk> chunks = new LinkedBlockingQueue<EventChunk>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private volatile Thread errorThread;
+        private volatile boolean complete;
+        private int events;
+        private int lastPC = -1;
+        private boolean gap;
+        private boolean sampled;
+    }
+}
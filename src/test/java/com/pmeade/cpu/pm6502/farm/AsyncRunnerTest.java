@@ -0,0 +1,157 @@
+/*
+ * AsyncRunnerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class AsyncRunnerTest
+{
+    private ExecutorService executor;
+    private AsyncRunner runner;
+
+    public AsyncRunnerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        runner = new AsyncRunner(executor, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testRunUntilBrk() throws Exception {
+        Ram image = new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       //       ldx #$00
+                .put(0xe8)             // loop: inx
+                .put(0xd0, 0xfd)       //       bne loop
+                .put(0xa9, 0x42)       //       lda #$42
+                .put(0x00)             //       brk
+                .create();
+        FarmResult result = runner.submit(new FarmJob(image)
+                .until(Completion.BRK)
+                .cycleBudget(10000000L)).get(10, TimeUnit.SECONDS);
+        assertEquals(FarmResult.Status.COMPLETED, result.getStatus());
+        assertEquals(0x42, result.getAC());
+        assertEquals(0xC007, result.getPC());
+        assertEquals(1, runner.getPoolSize());
+    }
+
+    @Test
+    public void testPooledMachinesAreReused() throws Exception {
+        List<CompletableFuture<FarmResult>> futures = new ArrayList<CompletableFuture<FarmResult>>();
+        for(int i=0; i<50; i++) {
+            Ram image = new MemoryBuilder().startAt(0xC000)
+                    .put(0xa9, i)          // lda #i
+                    .put(0x8d, 0x00, 0x02) // sta $0200
+                    .put(0x00)             // brk
+                    .create();
+            futures.add(runner.submit(new FarmJob(image)
+                    .until(Completion.BRK)
+                    .capture(0x0200, 1)));
+        }
+        for(int i=0; i<50; i++) {
+            FarmResult result = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(i, result.getCapture(0)[0]);
+        }
+        assertTrue(runner.getPoolSize() <= 2);
+    }
+
+    @Test
+    public void testPooledMachineRegistersCleared() throws Exception {
+        Ram dirty = new MemoryBuilder().startAt(0xC000)
+                .put(0xa9, 0x11)       // lda #$11
+                .put(0xa2, 0x22)       // ldx #$22
+                .put(0xa0, 0x33)       // ldy #$33
+                .put(0x00)             // brk
+                .create();
+        FarmResult first = runner.submit(new FarmJob(dirty)
+                .until(Completion.BRK)).get(10, TimeUnit.SECONDS);
+        assertEquals(0x22, first.getXR());
+        assertEquals(1, runner.getPoolSize());
+        Ram reader = new MemoryBuilder().startAt(0xC000)
+                .put(0x8d, 0x00, 0x02) // sta $0200
+                .put(0x8e, 0x01, 0x02) // stx $0201
+                .put(0x8c, 0x02, 0x02) // sty $0202
+                .put(0x00)             // brk
+                .create();
+        FarmResult second = runner.submit(new FarmJob(reader)
+                .until(Completion.BRK)
+                .capture(0x0200, 3)).get(10, TimeUnit.SECONDS);
+        assertEquals(1, runner.getPoolSize());
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x00 }, second.getCapture(0));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Ram image = new MemoryBuilder().startAt(0xC000)
+                .put(0x4c, 0x00, 0xc0) // loop: jmp loop
+                .create();
+        CompletableFuture<FarmResult> future = runner.submit(new FarmJob(image));
+        Thread.sleep(20);
+        assertFalse(future.isDone());
+        future.cancel(true);
+        try {
+            future.get();
+            fail();
+        } catch(CancellationException e) {
+            // expected
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while(runner.getPoolSize() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        FarmResult result = runner.submit(new FarmJob(image).cycleBudget(300))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(FarmResult.Status.BUDGET_EXHAUSTED, result.getStatus());
+    }
+}
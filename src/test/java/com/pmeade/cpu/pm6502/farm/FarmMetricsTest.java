@@ -0,0 +1,127 @@
+/*
+ * FarmMetricsTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class FarmMetricsTest
+{
+    public FarmMetricsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testConcurrentFlushes() throws Exception {
+        final FarmMetrics metrics = new FarmMetrics();
+        Thread[] threads = new Thread[4];
+        for(int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    FarmMetrics.Batch batch = metrics.local();
+                    for(int i=0; i<100000; i++) {
+                        batch.count(i & 0xff, 2);
+                        if((i % 1000) == 999) {
+                            batch.flush();
+                        }
+                    }
+                    batch.halt();
+                    batch.flush();
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(400000, snapshot.getInstructions());
+        assertEquals(800000, snapshot.getCycles());
+        assertEquals(4, snapshot.getHalts());
+        assertEquals(0, snapshot.getInterrupts());
+        long total = 0;
+        for(int i=0; i<0x100; i++) {
+            total += snapshot.getOpcodeCount(i);
+        }
+        assertEquals(400000, total);
+    }
+
+    @Test
+    public void testFarmMetrics() throws Exception {
+        Ram loop = new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       //       ldx #$00
+                .put(0xe8)             // loop: inx
+                .put(0xd0, 0xfd)       //       bne loop
+                .put(0x00)             //       brk
+                .create();
+        Ram bad = new MemoryBuilder().startAt(0xC000)
+                .put(0x02)             // illegal opcode
+                .create();
+        List<FarmJob> jobs = new ArrayList<FarmJob>();
+        for(int i=0; i<50; i++) {
+            jobs.add(new FarmJob(loop).until(Completion.BRK));
+        }
+        for(int i=0; i<3; i++) {
+            jobs.add(new FarmJob(bad));
+        }
+        Farm farm = new Farm(2, 100);
+        FarmMetrics metrics = new FarmMetrics();
+        farm.setMetrics(metrics);
+        try {
+            farm.run(jobs);
+        } finally {
+            farm.shutdown();
+        }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(50 * (1 + 256 + 256), snapshot.getInstructions());
+        assertEquals(farm.getTotalCycles(), snapshot.getCycles());
+        assertEquals(50 * 256, snapshot.getOpcodeCount(0xe8));
+        assertEquals(50, snapshot.getOpcodeCount(0xa2));
+        assertEquals(3, snapshot.getHalts());
+        assertEquals(0, snapshot.getInterrupts());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * FarmTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class FarmTest
+{
+    private Farm farm;
+    private Ram image;
+
+    public FarmTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        farm = new Farm(4, 1000);
+        image = new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       // ldx #$00
+                .put(0x8a)             // loop: txa
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0xe8)             // inx
+                .put(0xd0, 0xf9)       // bne loop
+                .put(0x4c, 0x09, 0xc0) // done: jmp done
+                .putAt(0xD000, 0xa9, 0x42) // lda #$42
+                .put(0x02)                 // hlt
+                .create();
+    }
+
+    @After
+    public void tearDown() {
+        farm.shutdown();
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        Completion atDone = new Completion() {
+            public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+                return cpu.getPC() == 0xC009;
+            }
+        };
+        List<FarmJob> jobs = new ArrayList<FarmJob>();
+        for(int i=0; i<100; i++) {
+            jobs.add(new FarmJob(image).until(atDone).capture(0x0200, 0x100));
+        }
+        jobs.add(new FarmJob(image).cycleBudget(5000));
+        jobs.add(new FarmJob(image).startAt(0xD000));
+
+        List<FarmResult> results = farm.run(jobs);
+        assertEquals(102, results.size());
+        for(int i=0; i<100; i++) {
+            FarmResult result = results.get(i);
+            assertEquals(FarmResult.Status.COMPLETED, result.getStatus());
+            assertEquals(0xC009, result.getPC());
+            assertEquals(results.get(0).getCycles(), result.getCycles());
+            for(int j=0; j<0x100; j++) {
+                assertEquals(j, result.getCapture(0)[j] & 0xff);
+            }
+        }
+        assertEquals(FarmResult.Status.BUDGET_EXHAUSTED, results.get(100).getStatus());
+        assertTrue(results.get(100).getCycles() >= 5000);
+        assertEquals(FarmResult.Status.HALTED, results.get(101).getStatus());
+        assertEquals(0x42, results.get(101).getAC());
+
+        // the image itself is never written
+        assertEquals(0x00, image.read(0x0201));
+        assertTrue(farm.getTotalCycles() > 100 * 0x100 * 9);
+        assertTrue(farm.getEmulatedMHz() > 0.0);
+    }
+
+    @Test
+    public void testJobsAreTimeSliced() throws Exception {
+        final List<String> finished = new ArrayList<String>();
+        Completion longDone = new Completion() {
+            public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+                if(cpu.getCycleCount() < 200000) {
+                    return false;
+                }
+                synchronized(finished) {
+                    finished.add("long");
+                }
+                return true;
+            }
+        };
+        Completion shortDone = new Completion() {
+            public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+                if(cpu.getPC() != 0xC009) {
+                    return false;
+                }
+                synchronized(finished) {
+                    finished.add("short");
+                }
+                return true;
+            }
+        };
+        List<FarmJob> jobs = new ArrayList<FarmJob>();
+        jobs.add(new FarmJob(image).startAt(0xC009).until(longDone));
+        for(int i=0; i<10; i++) {
+            jobs.add(new FarmJob(image).until(shortDone));
+        }
+        // one worker: a job that re-forks itself would run to the end first
+        Farm single = new Farm(1, 100);
+        try {
+            single.run(jobs);
+        } finally {
+            single.shutdown();
+        }
+        assertEquals(11, finished.size());
+        assertEquals("long", finished.get(10));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ShardLauncherTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.farm;
+
+import com.pmeade.cpu.pm6502.Cpu6502;
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import java.io.File;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class ShardLauncherTest
+{
+    public static class StoreSource implements JobSource
+    {
+        public int getJobCount() {
+            return 300;
+        }
+
+        public FarmJob createJob(int index) {
+            return new FarmJob(new MemoryBuilder().startAt(0xC000)
+                    .put(0xa9, index & 0xff) // lda #index
+                    .put(0x8d, 0x00, 0x02)   // sta $0200
+                    .put(0x4c, 0x05, 0xc0)   // done: jmp done
+                    .create())
+                .capture(0x0200, 1)
+                .cycleBudget(1000)
+                .until(new Completion() {
+                    public boolean isComplete(Cpu6502 cpu, MemoryIO mem) {
+                        return cpu.getPC() == 0xC005;
+                    }
+                });
+        }
+    }
+
+    private File file;
+
+    public ShardLauncherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("pm6502", ".results");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testInProcessWorkers() throws Exception {
+        ResultTable table = ResultTable.create(file.toPath(), 300, 1);
+        new ShardWorker(new StoreSource(), table, 2).run(0, 2);
+        assertEquals(150, table.getCompleted());
+        assertTrue(table.isWritten(298));
+        assertFalse(table.isWritten(299));
+        new ShardWorker(new StoreSource(), table, 2).run(1, 2);
+        checkResults(table);
+    }
+
+    @Test
+    public void testWorkerProcesses() throws Exception {
+        ResultTable table = new ShardLauncher(StoreSource.class, 2, 1)
+                .jvmArg("-Xmx64m")
+                .parallelism(1)
+                .run(file.toPath());
+        checkResults(table);
+        ResultTable reopened = ResultTable.open(file.toPath());
+        assertEquals(300, reopened.getCompleted());
+    }
+
+    private void checkResults(ResultTable table) {
+        assertEquals(300, table.getSlotCount());
+        assertEquals(2, table.getWorkersDone());
+        assertEquals(300, table.getCompleted());
+        assertEquals(0, table.getHalted());
+        assertEquals(300 * (2 + 4), table.getTotalCycles());
+        byte[] capture = new byte[1];
+        for(int i=0; i<300; i++) {
+            assertTrue(table.isWritten(i));
+            assertEquals(FarmResult.Status.COMPLETED, table.getStatus(i));
+            assertEquals(i & 0xff, table.getAC(i));
+            assertEquals(0xC005, table.getPC(i));
+            table.getCapture(i, capture);
+            assertEquals((byte) i, capture[0]);
+        }
+        assertEquals(3, table.getCoverageCount());
+        assertTrue(table.isCovered(0xC000));
+        assertTrue(table.isCovered(0xC002));
+        assertTrue(table.isCovered(0xC005));
+        assertFalse(table.isCovered(0xC003));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * CallGraphProfilerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class CallGraphProfilerTest
+{
+    private Ram ram;
+    private PM6502 cpu6502;
+    private CallGraphProfiler profiler;
+
+    public CallGraphProfilerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0x20, 0x10, 0xc0) //       jsr sub1
+                .put(0x20, 0x50, 0xc0) //       jsr sub3
+                .put(0x4c, 0x06, 0xc0) // done: jmp done
+                .putAt(0xC010, 0x20, 0x20, 0xc0) // sub1: jsr sub2
+                .put(0x20, 0x20, 0xc0) //       jsr sub2
+                .put(0x60)             //       rts
+                .putAt(0xC020, 0xea)   // sub2: nop
+                .put(0xa9, 0xc0)       //       lda #>(tail-1)
+                .put(0x48)             //       pha
+                .put(0xa9, 0x2f)       //       lda #<(tail-1)
+                .put(0x48)             //       pha
+                .put(0x60)             //       rts (a jump to tail)
+                .putAt(0xC030, 0x60)   // tail: rts
+                .nmiAt(0xC040)
+                .put(0x40)             // nmi:  rti
+                .putAt(0xC050, 0x68)   // sub3: pla
+                .put(0x68)             //       pla
+                .put(0x4c, 0x06, 0xc0) //       jmp done
+                .create();
+        cpu6502 = new PM6502();
+        profiler = new CallGraphProfiler(cpu6502, ram);
+        profiler.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testCallGraph() {
+        while(profiler.getPC() != 0xC006) {
+            profiler.execute();
+        }
+        assertEquals(0, profiler.getDepth());
+        assertEquals(1, profiler.getCalls(0xC010));
+        assertEquals(2, profiler.getCalls(0xC020));
+        assertEquals(1, profiler.getCalls(0xC050));
+
+        // sub2: nop, lda, pha, lda, pha, rts, rts = 2+2+3+2+3+6+6
+        assertEquals(2 * 24, profiler.getExclusiveCycles(0xC020));
+        assertEquals(2 * 24, profiler.getInclusiveCycles(0xC020));
+        // sub1: jsr, jsr, rts
+        assertEquals(6 + 6 + 6, profiler.getExclusiveCycles(0xC010));
+        assertEquals(18 + 48, profiler.getInclusiveCycles(0xC010));
+        // sub3 discards its return address, so its frame ends at the
+        // second pla and the jmp is charged to the root
+        assertEquals(4 + 4, profiler.getExclusiveCycles(0xC050));
+
+        profiler.setName(0xC010, "sub1");
+        String stacks = profiler.getCollapsedStacks();
+        assertTrue(stacks.contains("root;sub1 18\n"));
+        assertTrue(stacks.contains("root;sub1;C020 48\n"));
+        assertTrue(stacks.contains("root;C050 8\n"));
+        assertTrue(stacks.startsWith("root 15\n"));
+    }
+
+    @Test
+    public void testInterrupt() {
+        profiler.execute();
+        assertEquals(1, profiler.getDepth());
+        profiler.doNMI();
+        assertEquals(2, profiler.getDepth());
+        assertEquals(0xC040, profiler.getPC());
+        profiler.execute();
+        assertEquals(1, profiler.getDepth());
+        assertEquals(1, profiler.getCalls(0xC040));
+        assertEquals(6, profiler.getExclusiveCycles(0xC040));
+        assertTrue(profiler.getCollapsedStacks().contains("root;C010;C040 6\n"));
+    }
+
+    @Test
+    public void testStackPointerWraps() {
+        // the first jsr pushes at $01 and $00 and leaves SP at $FF
+        profiler.setSP(0x01);
+        profiler.execute();
+        assertEquals(0xFF, profiler.getSP());
+        assertEquals(1, profiler.getDepth());
+        while(profiler.getPC() != 0xC006) {
+            profiler.execute();
+        }
+        assertEquals(0, profiler.getDepth());
+        assertEquals(2, profiler.getCalls(0xC020));
+        assertEquals(6 + 6 + 6, profiler.getExclusiveCycles(0xC010));
+        assertEquals(18 + 48, profiler.getInclusiveCycles(0xC010));
+        assertEquals(4 + 4, profiler.getExclusiveCycles(0xC050));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * HotSpotProfilerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class HotSpotProfilerTest
+{
+    private Ram ram;
+    private PM6502 cpu6502;
+    private HotSpotProfiler profiler;
+
+    public HotSpotProfilerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       //       ldx #$00
+                .put(0xbd, 0xff, 0x02) // loop: lda $02ff,x
+                .put(0xe8)             //       inx
+                .put(0xd0, 0xfa)       //       bne loop
+                .put(0x4c, 0x08, 0xc0) // done: jmp done
+                .create();
+        cpu6502 = new PM6502();
+        profiler = new HotSpotProfiler(cpu6502, ram);
+        profiler.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testDisassemble() {
+        assertEquals("C000  A2 00     LDX #$00", Disassembler.disassemble(ram, 0xC000));
+        assertEquals("C002  BD FF 02  LDA $02FF,X", Disassembler.disassemble(ram, 0xC002));
+        assertEquals("C005  E8        INX", Disassembler.disassemble(ram, 0xC005));
+        assertEquals("C006  D0 FA     BNE $C002", Disassembler.disassemble(ram, 0xC006));
+        assertEquals("C008  4C 08 C0  JMP $C008", Disassembler.disassemble(ram, 0xC008));
+    }
+
+    @Test
+    public void testHotSpots() {
+        while(profiler.getPC() != 0xC008) {
+            profiler.execute();
+        }
+        for(int i=0; i<10; i++) {
+            profiler.execute();
+        }
+        assertEquals(1, profiler.getCount(0xC000));
+        assertEquals(256, profiler.getCount(0xC002));
+        assertEquals(4 + (255 * 5), profiler.getCycles(0xC002));
+        assertEquals(10, profiler.getCount(0xC008));
+        assertEquals(cpu6502.getCycleCount(), profiler.getTotalCycles());
+
+        int[] hottest = profiler.getHottest(3);
+        assertArrayEquals(new int[] { 0xC002, 0xC006, 0xC005 }, hottest);
+        assertEquals(5, profiler.getHottest(10).length);
+        assertEquals(0, profiler.getHottest(0).length);
+        assertArrayEquals(new int[] { 0xC000 }, profiler.getHottestRanges(0x100, 4));
+
+        String report = profiler.report(2, 0x10);
+        assertTrue(report.contains("C000-C00F"));
+        assertTrue(report.contains("C002  BD FF 02  LDA $02FF,X"));
+        assertFalse(report.contains("INX"));
+    }
+}
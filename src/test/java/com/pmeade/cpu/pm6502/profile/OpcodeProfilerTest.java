@@ -0,0 +1,96 @@
+/*
+ * OpcodeProfilerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.profile;
+
+import com.pmeade.cpu.pm6502.AddressMode;
+import com.pmeade.cpu.pm6502.Mnemonic;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class OpcodeProfilerTest
+{
+    private PM6502 cpu6502;
+    private OpcodeProfiler profiler;
+
+    public OpcodeProfilerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        Ram ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xa2, 0x00)       //       ldx #$00
+                .put(0xbd, 0xff, 0x02) // loop: lda $02ff,x
+                .put(0xe8)             //       inx
+                .put(0xd0, 0xfa)       //       bne loop
+                .put(0x4c, 0x08, 0xc0) // done: jmp done
+                .create();
+        cpu6502 = new PM6502();
+        profiler = new OpcodeProfiler(cpu6502, ram);
+        profiler.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testCounts() {
+        while(profiler.getPC() != 0xC008) {
+            profiler.execute();
+        }
+        assertEquals(1, profiler.getExecutions(0xa2));
+        assertEquals(256, profiler.getExecutions(0xbd));
+        assertEquals(256, profiler.getExecutions(Mnemonic.INX));
+        assertEquals(256, profiler.getExecutions(AddressMode.ABX));
+        // $02ff,x crosses into page 3 for every X but zero
+        assertEquals(255, profiler.getPageCrossings(0xbd));
+        assertEquals(255, profiler.getHistogram(0xbd, 5));
+        assertEquals(1, profiler.getHistogram(0xbd, 4));
+        assertEquals(4 + (255 * 5), profiler.getCycles(0xbd));
+        // bne is taken every time but the last
+        assertEquals(255, profiler.getBranchesTaken(0xd0));
+        assertEquals(0, profiler.getPageCrossings(0xd0));
+        assertEquals(1 + 256 * 3, profiler.getTotalExecutions());
+        assertEquals(cpu6502.getCycleCount(), profiler.getTotalCycles());
+        assertTrue(profiler.report().startsWith("op"));
+        assertTrue(profiler.report().contains("BD  LDA      ABX"));
+        profiler.resetCounts();
+        assertEquals(0, profiler.getTotalExecutions());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * ReplayMemoryIOTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.replay;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.IoMap;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class ReplayMemoryIOTest
+{
+    private IoMap ioMap;
+
+    public ReplayMemoryIOTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        ioMap = new IoMap().mapIO(0xD000, 0xD0FF);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testInputLog() {
+        InputLog inputLog = new InputLog();
+        inputLog.append(7, 0xD000, 0x12);
+        inputLog.append(7, 0xD001, 0x34);
+        inputLog.append(100000, 0xD0FF, 0xFF);
+        assertTrue(inputLog.next());
+        assertEquals(7, inputLog.getCycle());
+        assertEquals(0xD000, inputLog.getAddress());
+        assertEquals(0x12, inputLog.getValue());
+        assertTrue(inputLog.next());
+        assertEquals(7, inputLog.getCycle());
+        assertEquals(0x34, inputLog.getValue());
+        assertTrue(inputLog.next());
+        assertEquals(100000, inputLog.getCycle());
+        assertEquals(0xD0FF, inputLog.getAddress());
+        assertEquals(0xFF, inputLog.getValue());
+        assertFalse(inputLog.next());
+    }
+
+    @Test
+    public void testInputLogAppendAfterLoad() throws Exception {
+        InputLog inputLog = new InputLog();
+        inputLog.append(1000, 0xD000, 0x12);
+        File file = File.createTempFile("pm6502", ".log");
+        file.deleteOnExit();
+        inputLog.save(file.toPath());
+
+        InputLog loaded = InputLog.load(file.toPath());
+        loaded.append(1500, 0xD001, 0x34);
+        assertTrue(loaded.next());
+        assertEquals(1000, loaded.getCycle());
+        assertTrue(loaded.next());
+        assertEquals(1500, loaded.getCycle());
+        assertEquals(0xD001, loaded.getAddress());
+        assertFalse(loaded.next());
+        try {
+            loaded.append(1499, 0xD000, 0x00);
+            fail();
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInputLogRejectsEarlierCycle() {
+        InputLog inputLog = new InputLog();
+        inputLog.append(100, 0xD000, 0x12);
+        try {
+            inputLog.append(99, 0xD000, 0x34);
+            fail();
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(4, inputLog.getLength());
+    }
+
+    @Test
+    public void testInputLogAppendToEmptyLoad() throws Exception {
+        File file = File.createTempFile("pm6502", ".log");
+        file.deleteOnExit();
+        new InputLog().save(file.toPath());
+
+        InputLog loaded = InputLog.load(file.toPath());
+        assertEquals(0, loaded.getLength());
+        assertFalse(loaded.next());
+        loaded.append(5, 0xD000, 0x12);
+        assertTrue(loaded.next());
+        assertEquals(5, loaded.getCycle());
+        assertEquals(0x12, loaded.getValue());
+    }
+
+    @Test
+    public void testInputLogTruncatedFile() throws Exception {
+        InputLog inputLog = new InputLog();
+        inputLog.append(1000, 0xD000, 0x12);
+        inputLog.append(1500, 0xD001, 0x34);
+        File file = File.createTempFile("pm6502", ".log");
+        file.deleteOnExit();
+        inputLog.save(file.toPath());
+        assertEquals(10, inputLog.getLength());
+        // cut in the second entry's value, then in its cycle delta
+        for(long size : new long[] { 9, 6 }) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            raf.close();
+            try {
+                InputLog.load(file.toPath());
+                fail();
+            } catch(IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        final Ram ram = createMemory();
+        final Random random = new Random();
+        MemoryIO device = new MemoryIO() {
+            public int read(int address) {
+                if(address == 0xD000) { return random.nextInt(0x100); }
+                return ram.read(address);
+            }
+            public void write(int address, int data) {
+                ram.write(address, data);
+            }
+        };
+        PM6502 cpu = new PM6502();
+        InputLog inputLog = new InputLog();
+        cpu.setMemoryIO(new RecordingMemoryIO(device, ioMap, cpu, inputLog));
+        cpu.reset();
+        while(cpu.getPC() != 0xC009) {
+            cpu.execute();
+        }
+        assertEquals(0x100 * 4, inputLog.getLength());
+
+        File file = File.createTempFile("pm6502", ".log");
+        file.deleteOnExit();
+        inputLog.save(file.toPath());
+
+        Ram replayRam = createMemory();
+        PM6502 replayCpu = new PM6502();
+        replayCpu.setMemoryIO(new ReplayMemoryIO(replayRam, ioMap, replayCpu, InputLog.load(file.toPath())));
+        replayCpu.reset();
+        while(replayCpu.getPC() != 0xC009) {
+            replayCpu.execute();
+        }
+        assertEquals(cpu.getCycleCount(), replayCpu.getCycleCount());
+        for(int i=0; i<0x100; i++) {
+            assertEquals(ram.read(0x0200 + i), replayRam.read(0x0200 + i));
+        }
+    }
+
+    @Test
+    public void testReplayDiverged() {
+        InputLog inputLog = new InputLog();
+        inputLog.append(0, 0xD001, 0x12);
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(new ReplayMemoryIO(createMemory(), ioMap, cpu, inputLog));
+        cpu.reset();
+        try {
+            cpu.execute();
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private Ram createMemory() {
+        return new MemoryBuilder().startAt(0xC000)
+                .put(0xad, 0x00, 0xd0) // loop: lda $D000
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0xe8)             // inx
+                .put(0xd0, 0xf7)       // bne loop
+                .put(0x4c, 0x09, 0xc0) // done: jmp done
+                .create();
+    }
+}
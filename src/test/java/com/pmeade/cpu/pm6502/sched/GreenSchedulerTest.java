@@ -0,0 +1,143 @@
+/*
+ * GreenSchedulerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class GreenSchedulerTest
+{
+    private GreenScheduler scheduler;
+
+    public GreenSchedulerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new GreenScheduler(2, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testManyMachinesShareCarriers() throws Exception {
+        Machine[] machines = new Machine[200];
+        for(int i=0; i<machines.length; i++) {
+            machines[i] = scheduler.add(busyLoop(), null, 20000);
+        }
+        for(Machine machine : machines) {
+            await(machine, Machine.State.THROTTLED);
+            assertTrue(machine.getCyclesUsed() >= 20000);
+            assertTrue(machine.getCyclesUsed() < 20000 + 10);
+        }
+    }
+
+    @Test
+    public void testThrottleAndResume() throws Exception {
+        PM6502 cpu = busyLoop();
+        Machine machine = scheduler.add(cpu, null, 5000);
+        await(machine, Machine.State.THROTTLED);
+        long used = machine.getCyclesUsed();
+        Thread.sleep(20);
+        assertEquals(used, machine.getCyclesUsed());
+        machine.setCycleLimit(10000);
+        await(machine, Machine.State.THROTTLED);
+        assertTrue(machine.getCyclesUsed() >= 10000);
+    }
+
+    @Test
+    public void testIdleMachineParks() throws Exception {
+        PM6502 cpu = new PM6502();
+        Ram ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // inx
+                .put(0x4c, 0x01, 0xc0) // wait: jmp wait
+                .create();
+        cpu.setMemoryIO(ram);
+        cpu.reset();
+        Machine machine = scheduler.add(cpu);
+        await(machine, Machine.State.PARKED);
+        assertEquals(0xC001, cpu.getPC());
+        long used = machine.getCyclesUsed();
+        assertEquals(2 + 3, used);
+
+        // give it somewhere else to go and wake it up
+        ram.write(0xC002, 0x10);
+        ram.write(0xC003, 0xc0);
+        ram.write(0xC010, 0x4c);
+        ram.write(0xC011, 0x10);
+        ram.write(0xC012, 0xc0);
+        machine.wake();
+        await(machine, Machine.State.PARKED);
+        assertEquals(0xC010, cpu.getPC());
+        assertEquals(used + 3 + 3, machine.getCyclesUsed());
+    }
+
+    @Test
+    public void testHalted() throws Exception {
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0x02) // illegal opcode
+                .create());
+        cpu.reset();
+        Machine machine = scheduler.add(cpu);
+        await(machine, Machine.State.HALTED);
+        assertTrue(machine.getFailure() instanceof UnsupportedOperationException);
+    }
+
+    private PM6502 busyLoop() {
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create());
+        cpu.reset();
+        return cpu;
+    }
+
+    private void await(Machine machine, Machine.State state) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(machine.getState() != state) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
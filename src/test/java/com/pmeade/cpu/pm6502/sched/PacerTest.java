@@ -0,0 +1,116 @@
+/*
+ * PacerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.sched;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class PacerTest
+{
+    private PM6502 cpu6502;
+
+    public PacerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        cpu6502 = new PM6502();
+        cpu6502.setMemoryIO(new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create());
+        cpu6502.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testRealTime() {
+        Pacer pacer = new Pacer(cpu6502, Pacer.APPLE_II_HZ);
+        // a fifth of a second of emulated time
+        pacer.run(204600);
+        assertTrue(cpu6502.getCycleCount() >= 204600);
+        assertTrue(pacer.getBatches() > 0);
+        assertTrue(pacer.getElapsedNanos() >= 200000000L);
+        assertTrue(pacer.getElapsedNanos() < 2000000000L);
+        assertTrue(pacer.getBusyNanos() < pacer.getElapsedNanos());
+        assertTrue(pacer.getPeriod() >= Pacer.MIN_PERIOD);
+        assertTrue(pacer.getPeriod() <= Pacer.MAX_PERIOD);
+    }
+
+    @Test
+    public void testElapsedIncludesResync() {
+        final Ram ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create();
+        // the host stalls for 150 ms on the first instruction fetch
+        cpu6502.setMemoryIO(new MemoryIO() {
+            public int read(int address) {
+                if(!stalled && (address == 0xC000)) {
+                    stalled = true;
+                    try {
+                        Thread.sleep(150);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return ram.read(address);
+            }
+
+            public void write(int address, int data) {
+                ram.write(address, data);
+            }
+
+            private boolean stalled;
+        });
+        cpu6502.reset();
+        Pacer pacer = new Pacer(cpu6502, Pacer.APPLE_II_HZ);
+        long start = System.nanoTime();
+        pacer.run(204600);
+        long wall = System.nanoTime() - start;
+        assertTrue(pacer.getResyncs() > 0);
+        // 150 ms behind, then 200 ms of emulated time
+        assertTrue(pacer.getElapsedNanos() >= 340000000L);
+        assertTrue(pacer.getElapsedNanos() <= wall);
+    }
+}
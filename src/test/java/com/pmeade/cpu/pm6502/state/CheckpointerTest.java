@@ -0,0 +1,98 @@
+/*
+ * CheckpointerTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class CheckpointerTest
+{
+    private PM6502 cpu6502;
+    private Ram ram;
+    private Path path;
+
+    public CheckpointerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8a)             // txa
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create();
+        cpu6502 = new PM6502();
+        cpu6502.setMemoryIO(ram);
+        cpu6502.reset();
+        File file = File.createTempFile("pm6502", ".checkpoint");
+        file.delete();
+        file.deleteOnExit();
+        path = file.toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        Checkpointer checkpointer = new Checkpointer(cpu6502, ram, path, 10000);
+        assertEquals(-1, checkpointer.getLastCheckpointCycle());
+        while(cpu6502.getCycleCount() < 100000) {
+            checkpointer.execute();
+        }
+        checkpointer.close();
+        assertTrue(Files.exists(path));
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+
+        Snapshot snapshot = Snapshot.load(path);
+        assertEquals(checkpointer.getLastCheckpointCycle(), snapshot.getCycleCount());
+        assertTrue(snapshot.getCycleCount() >= 10000);
+
+        PM6502 cpu = new PM6502();
+        Ram mem = snapshot.restore(cpu);
+        int x = cpu.getXR();
+        assertEquals(x, mem.read(0x0200 + x));
+    }
+}
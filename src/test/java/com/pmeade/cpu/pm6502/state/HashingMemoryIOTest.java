@@ -0,0 +1,130 @@
+/*
+ * HashingMemoryIOTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.MemoryIO;
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class HashingMemoryIOTest
+{
+    private Ram ram;
+    private HashingMemoryIO mem;
+
+    public HashingMemoryIOTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8a)             // txa
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create();
+        mem = new HashingMemoryIO(ram);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testWriteAndRestore() {
+        long hash = mem.getMemoryHash();
+        mem.write(0x1234, 0x56);
+        assertTrue(hash != mem.getMemoryHash());
+        mem.write(0x1234, 0x00);
+        assertEquals(hash, mem.getMemoryHash());
+    }
+
+    @Test
+    public void testIncrementalMatchesRehash() {
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(mem);
+        cpu.reset();
+        while(cpu.getCycleCount() < 10000) {
+            cpu.execute();
+        }
+        long hash = mem.getMemoryHash();
+        mem.rehash();
+        assertEquals(hash, mem.getMemoryHash());
+    }
+
+    @Test
+    public void testLoopDetection() {
+        PM6502 cpu = new PM6502();
+        cpu.setMemoryIO(mem);
+        cpu.reset();
+        // after one full trip of X through 0..255 the state repeats
+        // every 256 iterations of the 4 instruction loop
+        for(int i=0; i<256*4; i++) { cpu.execute(); }
+        long state = mem.stateHash(cpu);
+        for(int i=0; i<255*4; i++) {
+            cpu.execute();
+            assertTrue(state != mem.stateHash(cpu));
+        }
+        for(int i=0; i<4; i++) { cpu.execute(); }
+        assertEquals(state, mem.stateHash(cpu));
+    }
+
+    @Test
+    public void testWriteToRomMatchesRehash() {
+        // ROM from $C000 up, and a register at $0300 that keeps 4 bits
+        HashingMemoryIO rom = new HashingMemoryIO(new MemoryIO() {
+            public int read(int address) {
+                return ram.read(address);
+            }
+
+            public void write(int address, int data) {
+                if(address == 0x0300) {
+                    ram.write(address, data & 0x0f);
+                } else if(address < 0xC000) {
+                    ram.write(address, data);
+                }
+            }
+        });
+        rom.write(0xC000, 0x12);
+        rom.write(0x0300, 0xff);
+        rom.write(0x0200, 0x34);
+        long hash = rom.getMemoryHash();
+        rom.rehash();
+        assertEquals(hash, rom.getMemoryHash());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * RewindBufferTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class RewindBufferTest
+{
+    private PM6502 cpu6502;
+    private Ram ram;
+
+    public RewindBufferTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        ram = createMemory();
+        cpu6502 = new PM6502();
+        cpu6502.setMemoryIO(ram);
+        cpu6502.reset();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testRewind() {
+        RewindBuffer rewindBuffer = new RewindBuffer(cpu6502, ram, 1000, Long.MAX_VALUE);
+        while(cpu6502.getCycleCount() < 100000) {
+            rewindBuffer.execute();
+        }
+        long target = cpu6502.getCycleCount() - 12345;
+        rewindBuffer.rewind(12345);
+
+        PM6502 cpu = new PM6502();
+        Ram mem = createMemory();
+        cpu.setMemoryIO(mem);
+        cpu.reset();
+        while(cpu.getCycleCount() < target) {
+            cpu.execute();
+        }
+        assertEquals(cpu.getCycleCount(), cpu6502.getCycleCount());
+        assertEquals(cpu.getPC(), cpu6502.getPC());
+        assertEquals(cpu.getAC(), cpu6502.getAC());
+        assertEquals(cpu.getXR(), cpu6502.getXR());
+        assertEquals(cpu.getSR(), cpu6502.getSR());
+        for(int i=0; i<Ram.SIZE; i++) {
+            assertEquals(mem.read(i), ram.read(i));
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        long budget = 16 * Ram.PAGE_SIZE + Ram.SIZE;
+        RewindBuffer rewindBuffer = new RewindBuffer(cpu6502, ram, 100, budget);
+        while(cpu6502.getCycleCount() < 100000) {
+            rewindBuffer.execute();
+            assertTrue(rewindBuffer.getMemoryUsed() <= budget);
+        }
+        assertTrue(rewindBuffer.size() > 1);
+        assertTrue(rewindBuffer.getOldestCycle() > 0);
+        try {
+            rewindBuffer.rewind(cpu6502.getCycleCount());
+            fail();
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Ram createMemory() {
+        return new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8a)             // txa
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0xe6, 0x10)       // inc $10
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * SnapshotStoreTest.java
+ * Copyright 2013 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.cpu.pm6502.state;
+
+import com.pmeade.cpu.pm6502.PM6502;
+import com.pmeade.cpu.pm6502.util.MemoryBuilder;
+import com.pmeade.cpu.pm6502.util.Ram;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author pmeade
+ */
+public class SnapshotStoreTest
+{
+    private PM6502 cpu6502;
+    private Ram ram;
+    private Path directory;
+
+    public SnapshotStoreTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ram = new MemoryBuilder().startAt(0xC000)
+                .put(0xe8)             // loop: inx
+                .put(0x8a)             // txa
+                .put(0x9d, 0x00, 0x02) // sta $0200,x
+                .put(0x4c, 0x00, 0xc0) // jmp loop
+                .create();
+        cpu6502 = new PM6502();
+        cpu6502.setMemoryIO(ram);
+        cpu6502.reset();
+        File file = File.createTempFile("pm6502", ".store");
+        file.delete();
+        directory = file.toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("pages.dat"));
+        Files.deleteIfExists(directory.resolve("manifests.dat"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testAlwaysSucceed() {
+        assertTrue(true);
+    }
+
+    @Test
+    public void testPagesAreDeduplicated() throws Exception {
+        SnapshotStore store = new SnapshotStore(directory, 64);
+        // zero page, code page and vector page
+        assertEquals(0, store.put(cpu6502, ram));
+        assertEquals(3, store.getPageCount());
+        // unchanged machine adds no pages
+        assertEquals(1, store.put(cpu6502, ram));
+        assertEquals(3, store.getPageCount());
+        // writing $0201 changes page $02 only
+        for(int i=0; i<4; i++) { cpu6502.execute(); }
+        assertEquals(2, store.put(cpu6502, ram));
+        assertEquals(4, store.getPageCount());
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testRestoreAfterReopen() throws Exception {
+        SnapshotStore store = new SnapshotStore(directory, 64);
+        while(cpu6502.getCycleCount() < 1000) {
+            cpu6502.execute();
+        }
+        int id = store.put(cpu6502, ram);
+        for(int i=0; i<1000; i++) {
+            store.put(cpu6502, ram);
+            cpu6502.execute();
+        }
+        store.close();
+
+        store = new SnapshotStore(directory, 2);
+        PM6502 cpu = new PM6502();
+        Ram mem = store.restore(id, cpu);
+        assertEquals(1001, store.size());
+        assertEquals(0xC000, mem.read(0xFFFC) | (mem.read(0xFFFD) << 8));
+        int x = cpu.getXR();
+        for(int i=1; i<x; i++) {
+            assertEquals(i, mem.read(0x0200 + i));
+        }
+        assertEquals(0x00, mem.read(0x0200 + x + 1));
+        mem.write(0x0200, 0xFF);
+        assertEquals(0x00, store.restore(id, new PM6502()).read(0x0200));
+        store.close();
+    }
+
+    @Test
+    public void testUnfinishedRecordsIgnored() throws Exception {
+        SnapshotStore store = new SnapshotStore(directory, 64);
+        store.put(cpu6502, ram);
+        store.close();
+        // a put killed after raising the counts but before writing the
+        // records leaves zero-filled records behind
+        bumpCount(directory.resolve("pages.dat"));
+        bumpCount(directory.resolve("manifests.dat"));
+
+        store = new SnapshotStore(directory, 64);
+        assertEquals(3, store.getPageCount());
+        assertEquals(1, store.size());
+        for(int i=0; i<4; i++) { cpu6502.execute(); }
+        assertEquals(1, store.put(cpu6502, ram));
+        assertEquals(4, store.getPageCount());
+        Ram mem = store.restore(1, new PM6502());
+        assertEquals(0x01, mem.read(0x0201));
+        store.close();
+    }
+
+    @Test
+    public void testSegmentedFiles() throws Exception {
+        // segments of three page records and one manifest
+        SnapshotStore store = new SnapshotStore(directory, 2, 3 * 272);
+        for(int i=0; i<40; i++) {
+            store.put(cpu6502, ram);
+            for(int j=0; j<4; j++) { cpu6502.execute(); }
+        }
+        store.close();
+
+        store = new SnapshotStore(directory, 2, 3 * 272);
+        assertEquals(40, store.size());
+        assertEquals(3 + 39, store.getPageCount());
+        for(int i=1; i<40; i++) {
+            Ram mem = store.restore(i, new PM6502());
+            assertEquals(i, mem.read(0x0200 + i));
+            assertEquals(0x00, mem.read(0x0200 + i + 1));
+        }
+        store.close();
+    }
+
+    private void bumpCount(Path file) throws Exception {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            channel.read(count, 12);
+            count.flip();
+            int n = count.getInt();
+            count.clear();
+            count.putInt(n + 1);
+            count.flip();
+            channel.write(count, 12);
+        } finally {
+            channel.close();
+        }
+    }
+}